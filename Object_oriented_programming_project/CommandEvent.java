@@ -0,0 +1,50 @@
+package cs2110;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A JDK Flight Recorder event emitted for every command executed by `PhDApp`, so that commands can
+ * be profiled with standard JFR tools.  `PhDApp` only creates one while `isTypeEnabled()`, so when
+ * no recording enables it, it costs nothing.
+ */
+@Name("cs2110.Command")
+@Label("Command")
+@Category("PhDApp")
+@Description("A command executed by PhDApp")
+final class CommandEvent extends Event {
+
+    /**
+     * The name of the command.
+     */
+    @Label("Command")
+    String command;
+
+    /**
+     * The arguments of the command.
+     */
+    @Label("Arguments")
+    String arguments;
+
+    /**
+     * The number of tree nodes the command visited (0 unless metrics are enabled; see `Metrics`).
+     */
+    @Label("Nodes Visited")
+    long nodesVisited;
+
+    /**
+     * The type of every CommandEvent, which knows whether any recording enables it.
+     */
+    private static final EventType TYPE = EventType.getEventType(CommandEvent.class);
+
+    /**
+     * Return whether a running recording enables CommandEvents, so that they are worth creating.
+     */
+    static boolean isTypeEnabled() {
+        return TYPE.isEnabled();
+    }
+}
@@ -0,0 +1,569 @@
+package cs2110;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A read-only academic genealogy stored as parallel arrays of ints rather than as one object per
+ * professor, supporting the same queries as PhDTree.  Professors are identified by their number in
+ * a preorder traversal of the whole genealogy (advisees in increasing order), so the professors of
+ * any subtree occupy consecutive numbers and traversals scan memory sequentially.  Names are kept
+ * once each, UTF-8 encoded, in a single sorted dictionary.
+ * <p>
+ * A CompactPhDTree is a view of the subtree rooted at one professor; `findTree()` returns views
+ * that share the same arrays.
+ */
+public class CompactPhDTree {
+
+    /**
+     * The arrays describing a whole genealogy, shared by every view of it.  Arrays indexed by node
+     * are indexed by preorder number; node 0 is the root.
+     */
+    private static final class Data {
+
+        /**
+         * The preorder number of each node's advisor, or -1 for the root.
+         */
+        final int[] parent;
+
+        /**
+         * The preorder number of each node's first advisee, or -1 if it has none.
+         */
+        final int[] firstChild;
+
+        /**
+         * The preorder number of the next advisee of each node's advisor, or -1 if there is none.
+         */
+        final int[] nextSibling;
+
+        /**
+         * The year in which each node's professor earned their PhD.
+         */
+        final int[] years;
+
+        /**
+         * The index in the name dictionary of each node's professor's name.
+         */
+        final int[] nameIds;
+
+        /**
+         * The node holding each name in the dictionary; the inverse of `nameIds`.
+         */
+        final int[] nodesByName;
+
+        /**
+         * The UTF-8 encodings of all names in the dictionary, concatenated in sorted order.
+         */
+        final byte[] namePool;
+
+        /**
+         * Name `i` of the dictionary occupies `namePool[nameStarts[i]]` through
+         * `namePool[nameStarts[i + 1] - 1]`.
+         */
+        final int[] nameStarts;
+
+        /**
+         * Create the arrays for a genealogy with professors named `names[i]`, with PhD years
+         * `years[i]`, where `parents[i]` is the index of the advisor of professor `i` (-1 for the
+         * root).  Requires the professors are listed in preorder with each professor's advisees in
+         * increasing order, starting from the root at index 0, and their names are distinct.
+         */
+        Data(String[] names, int[] years, int[] parents) {
+            int n = names.length;
+            this.parent = parents;
+            this.years = years;
+
+            // In preorder, a node's first advisee (if any) immediately follows it, and each
+            // advisee is followed by the next one once the advisee's own subtree is complete.
+            firstChild = new int[n];
+            nextSibling = new int[n];
+            int[] lastChild = new int[n];
+            Arrays.fill(lastChild, -1);
+            for (int i = 0; i < n; i++) {
+                firstChild[i] = (i + 1 < n && parents[i + 1] == i) ? i + 1 : -1;
+                nextSibling[i] = -1;
+                int p = parents[i];
+                if (p >= 0) {
+                    if (lastChild[p] >= 0) {
+                        nextSibling[lastChild[p]] = i;
+                    }
+                    lastChild[p] = i;
+                }
+            }
+
+            // Build the name dictionary in String order, so that it can be binary searched by
+            // comparing names with String.compareTo()'s order, as `compareEntry()` does.
+            String[] sorted = names.clone();
+            Arrays.parallelSort(sorted);
+            nameIds = new int[n];
+            nodesByName = new int[n];
+            for (int i = 0; i < n; i++) {
+                int id = Arrays.binarySearch(sorted, names[i]);
+                nameIds[i] = id;
+                nodesByName[id] = i;
+            }
+            byte[][] encoded = new byte[n][];
+            long total = 0;
+            for (int i = 0; i < n; i++) {
+                encoded[i] = sorted[i].getBytes(StandardCharsets.UTF_8);
+                total += encoded[i].length;
+            }
+            if (total > Integer.MAX_VALUE - 8) {
+                throw new IllegalArgumentException("Names too long for a compact tree");
+            }
+            namePool = new byte[(int) total];
+            nameStarts = new int[n + 1];
+            int pos = 0;
+            for (int i = 0; i < n; i++) {
+                nameStarts[i] = pos;
+                System.arraycopy(encoded[i], 0, namePool, pos, encoded[i].length);
+                pos += encoded[i].length;
+            }
+            nameStarts[n] = pos;
+        }
+
+        /**
+         * Return the number of nodes in the genealogy.
+         */
+        int size() {
+            return parent.length;
+        }
+
+        /**
+         * Return the name of the professor at `node`.
+         */
+        String name(int node) {
+            return dictionaryEntry(nameIds[node]);
+        }
+
+        /**
+         * Return name `id` of the dictionary.
+         */
+        String dictionaryEntry(int id) {
+            int start = nameStarts[id];
+            return new String(namePool, start, nameStarts[id + 1] - start, StandardCharsets.UTF_8);
+        }
+
+        /**
+         * Compare name `id` of the dictionary with `name` as `dictionaryEntry(id).compareTo(name)`
+         * would, returning a negative, zero or positive int, but decode the entry's UTF-8 bytes in
+         * place instead of into a new String.
+         */
+        int compareEntry(int id, String name) {
+            int pos = nameStarts[id];
+            int limit = nameStarts[id + 1];
+            int i = 0;
+            int length = name.length();
+            while (pos < limit) {
+                // The pool was produced by the UTF-8 encoder, so every sequence is well formed.
+                int b = namePool[pos++] & 0xff;
+                int codePoint;
+                if (b < 0x80) {
+                    codePoint = b;
+                } else if (b < 0xe0) {
+                    codePoint = (b & 0x1f) << 6 | (namePool[pos++] & 0x3f);
+                } else if (b < 0xf0) {
+                    codePoint = (b & 0x0f) << 12 | (namePool[pos++] & 0x3f) << 6
+                            | (namePool[pos++] & 0x3f);
+                } else {
+                    codePoint = (b & 0x07) << 18 | (namePool[pos++] & 0x3f) << 12
+                            | (namePool[pos++] & 0x3f) << 6 | (namePool[pos++] & 0x3f);
+                }
+                // String.compareTo() compares chars, so compare supplementary code points by their
+                // surrogate pairs.
+                boolean pair = Character.isSupplementaryCodePoint(codePoint);
+                for (int u = 0; u < (pair ? 2 : 1); u++) {
+                    if (i == length) {
+                        return 1;
+                    }
+                    char unit = !pair ? (char) codePoint
+                            : (u == 0) ? Character.highSurrogate(codePoint)
+                            : Character.lowSurrogate(codePoint);
+                    char other = name.charAt(i++);
+                    if (unit != other) {
+                        return unit - other;
+                    }
+                }
+            }
+            return (i == length) ? 0 : -1;
+        }
+
+        /**
+         * Return the node of the professor named `name`, or -1 if there is none.  Allocates
+         * nothing.
+         */
+        int nodeNamed(String name) {
+            int lo = 0;
+            int hi = size() - 1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                int c = compareEntry(mid, name);
+                if (c < 0) {
+                    lo = mid + 1;
+                } else if (c > 0) {
+                    hi = mid - 1;
+                } else {
+                    return nodesByName[mid];
+                }
+            }
+            return -1;
+        }
+    }
+
+    /**
+     * The arrays describing the whole genealogy this view belongs to.
+     */
+    private final Data data;
+
+    /**
+     * The preorder number of the professor at the root of this view.
+     */
+    private final int root;
+
+    /**
+     * One past the preorder number of the last professor in this view.  The professors of this view
+     * are exactly those numbered `root` through `end - 1`.
+     */
+    private final int end;
+
+    /**
+     * Create a view of the subtree of `data` rooted at node `root`.
+     */
+    private CompactPhDTree(Data data, int root) {
+        this.data = data;
+        this.root = root;
+        this.end = subtreeEnd(data, root);
+    }
+
+    /**
+     * Return one past the preorder number of the last node in the subtree of `data` rooted at
+     * `node`, which is where the next advisee of the nearest ancestor that has one begins.
+     */
+    private static int subtreeEnd(Data data, int node) {
+        for (int u = node; u >= 0; u = data.parent[u]) {
+            if (data.nextSibling[u] >= 0) {
+                return data.nextSibling[u];
+            }
+        }
+        return data.size();
+    }
+
+    /**
+     * Return a compact copy of `tree`.
+     */
+    public static CompactPhDTree of(PhDTree tree) {
+        // The Euler-tour index already lists the genealogy in the required order.
+        EulerIndex index = tree.eulerIndex();
+        int from = tree.eulerNumber();
+        int n = tree.size();
+        String[] names = new String[n];
+        int[] years = new int[n];
+        int[] parents = new int[n];
+        for (int i = 0; i < n; i++) {
+            Professor prof = index.node(from + i).prof();
+            names[i] = prof.name();
+            years[i] = prof.phdYear();
+            parents[i] = (i == 0) ? -1 : index.parent(from + i) - from;
+        }
+        return new CompactPhDTree(new Data(names, years, parents), 0);
+    }
+
+    /**
+     * Return a compact genealogy containing the professors `profs`, rooted at `profs[0]`, in which
+     * the advisor of `profs[i]` is `profs[parents[i]]` for every `i > 0`.  Requires the same as
+     * `PhDTree.assemble()`.
+     */
+    static CompactPhDTree assemble(Professor[] profs, int[] parents) {
+        long start = Metrics.now();
+        int n = profs.length;
+
+        // Rank the professors in their natural order (by year, then name).  Names are distinct, so
+        // sorting (year, name rank) pairs packed into longs orders them without boxing.
+        String[] sortedNames = new String[n];
+        for (int i = 0; i < n; i++) {
+            sortedNames[i] = profs[i].name();
+        }
+        Arrays.parallelSort(sortedNames);
+        int[] byNameRank = new int[n];
+        long[] keys = new long[n];
+        for (int i = 0; i < n; i++) {
+            int rank = Arrays.binarySearch(sortedNames, profs[i].name());
+            byNameRank[rank] = i;
+            keys[i] = ((long) profs[i].phdYear() << 32) | rank;
+        }
+        Arrays.parallelSort(keys);
+
+        // Group advisees by advisor (a counting sort), visiting professors in natural order so
+        // that each group comes out in increasing order.
+        int[] childStart = new int[n + 1];
+        for (int i = 1; i < n; i++) {
+            childStart[parents[i] + 1]++;
+        }
+        for (int i = 0; i < n; i++) {
+            childStart[i + 1] += childStart[i];
+        }
+        int[] children = new int[Math.max(0, n - 1)];
+        int[] fill = Arrays.copyOf(childStart, n);
+        for (long key : keys) {
+            int i = byNameRank[(int) key];
+            if (i != 0) {
+                children[fill[parents[i]]++] = i;
+            }
+        }
+
+        // Lay the professors out in preorder.
+        String[] names = new String[n];
+        int[] years = new int[n];
+        int[] newParents = new int[n];
+        int[] newIndex = new int[n];
+        int[] stack = new int[n];
+        int top = 0;
+        stack[top++] = 0;
+        int next = 0;
+        while (top > 0) {
+            int i = stack[--top];
+            newIndex[i] = next;
+            names[next] = profs[i].name();
+            years[next] = profs[i].phdYear();
+            newParents[next] = (i == 0) ? -1 : newIndex[parents[i]];
+            next++;
+            // Push advisees in decreasing order so that they are laid out in increasing order.
+            for (int c = childStart[i + 1] - 1; c >= childStart[i]; c--) {
+                stack[top++] = children[c];
+            }
+        }
+        assert next == n;
+        CompactPhDTree tree = new CompactPhDTree(new Data(names, years, newParents), 0);
+        Metrics.loadPhase("assemble", start);
+        return tree;
+    }
+
+    /**
+     * Return the Professor at the root of this tree.
+     */
+    public Professor prof() {
+        return professorAt(root);
+    }
+
+    /**
+     * Return the professor at `node`.
+     */
+    private Professor professorAt(int node) {
+        return new Professor(data.name(node), data.years[node]);
+    }
+
+    /**
+     * Return the number of direct advisees of the professor at the root of this tree.
+     */
+    public int numAdvisees() {
+        return numAdvisees(root);
+    }
+
+    /**
+     * Return the number of direct advisees of the professor at `node`.
+     */
+    private int numAdvisees(int node) {
+        int count = 0;
+        for (int c = data.firstChild[node]; c >= 0; c = data.nextSibling[c]) {
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Return the number of professors in this tree with no advisees of their own.
+     */
+    public int numLeaves() {
+        int count = 0;
+        for (int u = root; u < end; u++) {
+            if (data.firstChild[u] < 0) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Return a professor in this tree who has at least `minAdvisees` advisees, if one exists.
+     * Otherwise, throws `NotFound`.  Returns the same professor as `PhDTree.findProlificMentor()`.
+     */
+    public Professor findProlificMentor(int minAdvisees) throws NotFound {
+        for (int u = root; u < end; u++) {
+            if (numAdvisees(u) >= minAdvisees) {
+                return professorAt(u);
+            }
+        }
+        throw new NotFound();
+    }
+
+    /**
+     * Return the number of professors in this tree.
+     */
+    public int size() {
+        return end - root;
+    }
+
+    /**
+     * Return the number of professors along the longest path from the root of this tree to a
+     * professor with no advisees (a leaf).  If the professor at the root of this tree has no
+     * advisees, its depth is 1.
+     */
+    public int maxDepth() {
+        // In preorder, every node's advisor has already been assigned a depth.
+        int[] depths = new int[size()];
+        int max = 0;
+        for (int u = root; u < end; u++) {
+            int d = (u == root) ? 1 : depths[data.parent[u] - root] + 1;
+            depths[u - root] = d;
+            max = Math.max(max, d);
+        }
+        return max;
+    }
+
+    /**
+     * Return the subtree with a professor named `targetName` at the root if such a professor is in
+     * this tree. Throws `NotFound` if `target` is not in this tree.
+     */
+    public CompactPhDTree findTree(String targetName) throws NotFound {
+        return new CompactPhDTree(data, find(targetName));
+    }
+
+    /**
+     * Return the preorder number of the professor named `targetName` if they are in this tree,
+     * otherwise throw `NotFound`.
+     */
+    private int find(String targetName) throws NotFound {
+        int node = data.nodeNamed(targetName);
+        if (node < root || node >= end) {
+            throw new NotFound();
+        }
+        return node;
+    }
+
+    /**
+     * Returns true if this tree contains Professor `targetName` (either at the root or among the
+     * root's advising descendants).
+     */
+    public boolean contains(String targetName) {
+        int node = data.nodeNamed(targetName);
+        return node >= root && node < end;
+    }
+
+    /**
+     * Return the immediate advisor of the professor named `targetAdviseeName`, or throw `NotFound`
+     * if `targetAdviseeName` is not an advising descendant of the professor at the root of this
+     * tree.
+     */
+    public Professor findAdvisor(String targetAdviseeName) throws NotFound {
+        int node = find(targetAdviseeName);
+        if (node == root) {
+            throw new NotFound();
+        }
+        return professorAt(data.parent[node]);
+    }
+
+    /**
+     * Return the professors on the path between the root of this tree and the descendant professor
+     * named `targetName`, starting with the root and ending with professor `targetName`.  Throws
+     * `NotFound` if there is no such path.
+     */
+    public List<Professor> findAcademicLineage(String targetName) throws NotFound {
+        List<Professor> lineage = new ArrayList<>();
+        for (int u = find(targetName); u != root; u = data.parent[u]) {
+            lineage.add(professorAt(u));
+        }
+        lineage.add(professorAt(root));
+        Collections.reverse(lineage);
+        return lineage;
+    }
+
+    /**
+     * Return the professor at the root of the smallest subtree of this tree that contains
+     * professors named `prof1Name` and `prof2Name`, if such a subtree exists. Otherwise, throw
+     * `NotFound`.
+     */
+    public Professor commonAncestor(String prof1Name, String prof2Name) throws NotFound {
+        int u = find(prof1Name);
+        int v = find(prof2Name);
+        // Every proper ancestor of a node precedes it in preorder, so repeatedly replacing the
+        // later of the two nodes with its advisor reaches their lowest common ancestor.
+        while (u != v) {
+            if (u > v) {
+                u = data.parent[u];
+            } else {
+                v = data.parent[v];
+            }
+        }
+        return professorAt(u);
+    }
+
+    /**
+     * Return a (single line) String representation of this tree, in the same format as
+     * `PhDTree.toString()`.
+     */
+    @Override
+    public String toString() {
+        StringBuilder s = new StringBuilder();
+        try {
+            writeTo(s);
+        } catch (IOException e) {
+            // Appending to a StringBuilder does not throw.
+            throw new UncheckedIOException(e);
+        }
+        return s.toString();
+    }
+
+    /**
+     * Write the String representation of this tree described by `toString()` to `out`, a piece at
+     * a time.
+     */
+    public void writeTo(Appendable out) throws IOException {
+        for (int u = root; u < end; u++) {
+            out.append(data.name(u));
+            if (data.firstChild[u] >= 0) {
+                // The first advisee is u + 1.
+                out.append('[');
+                continue;
+            }
+            // Close the lists that `u` completes.  The next node in preorder is then the next
+            // advisee of the innermost list still open.
+            int w = u;
+            while (w != root && data.nextSibling[w] < 0) {
+                out.append(']');
+                w = data.parent[w];
+            }
+            if (w == root) {
+                break;
+            }
+            out.append(", ");
+        }
+    }
+
+    /**
+     * Print each professor in this tree to `out`, in the same format and order as
+     * `PhDTree.printProfessors()`.
+     */
+    public void printProfessors(PrintWriter out) {
+        try {
+            writeProfessors(out);
+        } catch (IOException e) {
+            // A PrintWriter does not throw; it records errors for `checkError()` instead.
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Write each professor in this tree to `out` in the format and order of `printProfessors()`.
+     */
+    public void writeProfessors(Appendable out) throws IOException {
+        for (int u = root; u < end; u++) {
+            GenealogyFormat.appendListing(out, data.name(u), data.years[u]);
+        }
+    }
+}
@@ -0,0 +1,666 @@
+package cs2110;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * An academic genealogy that any number of threads may query while other threads insert advisees.
+ * Every version of the genealogy is an immutable tree of nodes.  Inserting advisees copies the
+ * nodes on the paths from the root to their advisors into a new version, sharing every other node
+ * with the previous version, and then publishes the new version's root through an atomic
+ * reference.  Readers never block: they query a `Snapshot` of whichever version was current when
+ * they took it, and see that version in full no matter what is inserted meanwhile.
+ * <p>
+ * Insertions made concurrently are committed together: while one thread builds a version, other
+ * inserting threads queue their advisees, and the next version adds all of them at once.
+ * <p>
+ * `PhDApp` does not use this class, since its commands rely on the indexes that `PhDTree` keeps,
+ * which this class does not have.  This class serves callers that only insert and need queries
+ * that never wait for an insertion; `ConcurrentStressTest` checks its consistency under many
+ * concurrent readers.
+ */
+public final class ConcurrentPhDTree {
+
+    /**
+     * A professor in one version of the genealogy, with their advisees in that version.  Nodes are
+     * never modified once published, so they may be shared between versions.
+     */
+    private static final class Node {
+
+        /**
+         * The professor at this node.
+         */
+        final Professor prof;
+
+        /**
+         * The nodes of this professor's advisees, in increasing order of their professors.
+         * Shared by all leaves.
+         */
+        final Node[] advisees;
+
+        /**
+         * The number of professors in the subtree rooted at this node.
+         */
+        final int size;
+
+        /**
+         * The number of professors on the longest path from this node down to a leaf.
+         */
+        final int height;
+
+        /**
+         * Create a node for `prof` with the advisees `advisees`, which must be in increasing order
+         * of their professors and must not be modified afterwards.
+         */
+        Node(Professor prof, Node[] advisees) {
+            this.prof = prof;
+            this.advisees = advisees;
+            int size = 1;
+            int height = 0;
+            for (Node advisee : advisees) {
+                size += advisee.size;
+                height = Math.max(height, advisee.height);
+            }
+            this.size = size;
+            this.height = height + 1;
+        }
+
+        /**
+         * Return the index of the advisee of this node whose professor is `prof`, or, if there is
+         * none, `-(insertion point) - 1` as in `Arrays.binarySearch()`.
+         */
+        int indexOf(Professor prof) {
+            return indexOf(advisees, prof);
+        }
+
+        /**
+         * Return the index of the node in `nodes` whose professor is `prof`, or, if there is none,
+         * `-(insertion point) - 1` as in `Arrays.binarySearch()`.  Requires `nodes` is in
+         * increasing order of their professors.
+         */
+        static int indexOf(Node[] nodes, Professor prof) {
+            int lo = 0;
+            int hi = nodes.length - 1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                int c = nodes[mid].prof.compareTo(prof);
+                if (c < 0) {
+                    lo = mid + 1;
+                } else if (c > 0) {
+                    hi = mid - 1;
+                } else {
+                    return mid;
+                }
+            }
+            return -(lo + 1);
+        }
+    }
+
+    /**
+     * The advisees of every leaf.
+     */
+    private static final Node[] NO_ADVISEES = new Node[0];
+
+    /**
+     * Where a professor belongs in the genealogy.  Entries are never modified or removed once
+     * added, so they hold for every version from the one that added them onwards.
+     */
+    private static final class Entry {
+
+        /**
+         * The professor.
+         */
+        final Professor prof;
+
+        /**
+         * The name of the professor's advisor, or null for the root of the genealogy.
+         */
+        final String advisor;
+
+        /**
+         * The number of the first version containing the professor.
+         */
+        final long version;
+
+        /**
+         * Create an entry for `prof`, advised by the professor named `advisor`, added in version
+         * `version`.
+         */
+        Entry(Professor prof, String advisor, long version) {
+            this.prof = prof;
+            this.advisor = advisor;
+            this.version = version;
+        }
+    }
+
+    /**
+     * An advisee waiting to be inserted, and the outcome of inserting them.
+     */
+    private static final class Insertion {
+
+        /**
+         * The name of the new advisee's advisor.
+         */
+        final String advisorName;
+
+        /**
+         * The new advisee.
+         */
+        final Professor advisee;
+
+        /**
+         * Whether a writer has processed this insertion.  Only accessed while holding
+         * `commitLock`.
+         */
+        boolean done;
+
+        /**
+         * Why the insertion failed, or null if it succeeded or has not been processed.  Only
+         * accessed while holding `commitLock`.
+         */
+        RuntimeException error;
+
+        /**
+         * Whether the insertion failed because the advisor is not in the genealogy.  Only accessed
+         * while holding `commitLock`.
+         */
+        boolean advisorNotFound;
+
+        /**
+         * Create a request to insert `advisee` under the professor named `advisorName`.
+         */
+        Insertion(String advisorName, Professor advisee) {
+            this.advisorName = advisorName;
+            this.advisee = advisee;
+        }
+    }
+
+    /**
+     * The entry of every professor in any version of the genealogy, by name.  Readers ignore
+     * entries added after the version they are reading.
+     */
+    private final ConcurrentHashMap<String, Entry> entries;
+
+    /**
+     * The current version of the whole genealogy.
+     */
+    private final AtomicReference<Snapshot> current;
+
+    /**
+     * Insertions that have been requested but not yet committed, in request order.
+     */
+    private final ConcurrentLinkedQueue<Insertion> pending = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Held by the thread committing a new version.  Readers never acquire it.
+     */
+    private final ReentrantLock commitLock = new ReentrantLock();
+
+    /**
+     * Create a genealogy with a single professor, `rootProf`, in version 0.
+     */
+    public ConcurrentPhDTree(Professor rootProf) {
+        entries = new ConcurrentHashMap<>();
+        entries.put(rootProf.name(), new Entry(rootProf, null, 0));
+        current = new AtomicReference<>(new Snapshot(this, new Node(rootProf, NO_ADVISEES), 0));
+    }
+
+    /**
+     * Create a genealogy holding the professors of `tree`, with `tree`'s root at the root, in
+     * version 0.  Later changes to `tree` do not affect the new genealogy.
+     */
+    public static ConcurrentPhDTree of(PhDTree tree) {
+        // Number the professors in preorder, in which advisees follow their advisor in increasing
+        // order, so that building the nodes in reverse preorder builds advisees first.
+        EulerIndex index = tree.eulerIndex();
+        int from = tree.eulerNumber();
+        int n = tree.size();
+        int[] parents = new int[n];
+        int[] childCounts = new int[n];
+        for (int i = 1; i < n; i++) {
+            parents[i] = index.parent(from + i) - from;
+            childCounts[parents[i]]++;
+        }
+        Node[][] children = new Node[n][];
+        int[] filled = new int[n];
+        for (int i = 0; i < n; i++) {
+            children[i] = (childCounts[i] == 0) ? NO_ADVISEES : new Node[childCounts[i]];
+        }
+
+        ConcurrentPhDTree result = new ConcurrentPhDTree(tree.prof());
+        Node node = null;
+        for (int i = n - 1; i >= 0; i--) {
+            Professor prof = index.node(from + i).prof();
+            node = new Node(prof, children[i]);
+            children[i] = null;
+            if (i > 0) {
+                // Advisees are visited in decreasing order here, so fill arrays from the end.
+                int p = parents[i];
+                filled[p]++;
+                children[p][childCounts[p] - filled[p]] = node;
+                String advisor = index.node(from + p).prof().name();
+                result.entries.put(prof.name(), new Entry(prof, advisor, 0));
+            }
+        }
+        result.current.set(new Snapshot(result, node, 0));
+        return result;
+    }
+
+    /**
+     * Return a snapshot of the current version of the whole genealogy.  Never blocks.
+     */
+    public Snapshot snapshot() {
+        return current.get();
+    }
+
+    /**
+     * Return the number of professors in the current version of the genealogy.
+     */
+    public int size() {
+        return snapshot().size();
+    }
+
+    /**
+     * Return whether the current version of the genealogy contains a professor named
+     * `targetName`.
+     */
+    public boolean contains(String targetName) {
+        return snapshot().contains(targetName);
+    }
+
+    /**
+     * Return a snapshot of the subtree rooted at the professor named `targetName` in the current
+     * version of the genealogy.  Throws `NotFound` if there is no such professor.
+     */
+    public Snapshot findTree(String targetName) throws NotFound {
+        return snapshot().findTree(targetName);
+    }
+
+    /**
+     * Return the lowest common ancestor of the professors named `prof1Name` and `prof2Name` in the
+     * current version of the genealogy.  Throws `NotFound` if either is not in it.
+     */
+    public Professor commonAncestor(String prof1Name, String prof2Name) throws NotFound {
+        return snapshot().commonAncestor(prof1Name, prof2Name);
+    }
+
+    /**
+     * Insert `newAdvisee` as an advisee of the professor named `advisorName`, and return once a
+     * version containing them is current.  Throws `NotFound` if there is no professor named
+     * `advisorName` in the genealogy, or `IllegalArgumentException` if there already is a professor
+     * named like `newAdvisee`.  Insertions by concurrent callers may be committed in the same
+     * version.
+     */
+    public void insert(String advisorName, Professor newAdvisee) throws NotFound {
+        Insertion insertion = new Insertion(advisorName, newAdvisee);
+        pending.add(insertion);
+        commitLock.lock();
+        try {
+            // A writer that held the lock before us may already have committed this insertion.
+            if (!insertion.done) {
+                commitPending();
+            }
+            if (insertion.advisorNotFound) {
+                throw new NotFound();
+            }
+            if (insertion.error != null) {
+                throw insertion.error;
+            }
+        } finally {
+            commitLock.unlock();
+        }
+    }
+
+    /**
+     * Commit every pending insertion in a single new version and publish it.  Requires the caller
+     * holds `commitLock`.
+     */
+    private void commitPending() {
+        Snapshot base = current.get();
+        long version = base.version + 1;
+
+        // Register the new advisees.  An advisee may be advised by one inserted earlier in the
+        // same batch.  Readers of earlier versions ignore the new entries.
+        Map<String, List<Professor>> additions = new HashMap<>();
+        for (Insertion insertion; (insertion = pending.poll()) != null; ) {
+            insertion.done = true;
+            if (!entries.containsKey(insertion.advisorName)) {
+                insertion.advisorNotFound = true;
+                continue;
+            }
+            Professor advisee = insertion.advisee;
+            if (entries.putIfAbsent(advisee.name(),
+                    new Entry(advisee, insertion.advisorName, version)) != null) {
+                insertion.error = new IllegalArgumentException("Duplicate advisee");
+                continue;
+            }
+            additions.computeIfAbsent(insertion.advisorName, k -> new ArrayList<>()).add(advisee);
+        }
+        if (additions.isEmpty()) {
+            return;
+        }
+
+        // Every node from an advisor up to the root must be copied.  Record, for each such node,
+        // which of its advisees must be copied too.
+        // A node is listed among its advisor's changed advisees as soon as it is marked, so the
+        // walk up from an advisor stops at the first node already marked.
+        Map<String, List<String>> changedAdvisees = new HashMap<>();
+        for (String advisor : additions.keySet()) {
+            if (changedAdvisees.containsKey(advisor)) {
+                continue;
+            }
+            changedAdvisees.put(advisor, new ArrayList<>());
+            String name = advisor;
+            for (String parent = entries.get(name).advisor; parent != null;
+                    parent = entries.get(name).advisor) {
+                List<String> siblings = changedAdvisees.get(parent);
+                boolean marked = siblings != null;
+                if (!marked) {
+                    siblings = new ArrayList<>();
+                    changedAdvisees.put(parent, siblings);
+                }
+                siblings.add(name);
+                if (marked) {
+                    break;
+                }
+                name = parent;
+            }
+        }
+
+        // Copy the changed nodes in postorder with an explicit stack, so that each node is built
+        // after all of its changed advisees.
+        ArrayDeque<Frame> stack = new ArrayDeque<>();
+        Map<String, Node> rebuilt = new HashMap<>();
+        String rootName = base.root.prof.name();
+        stack.push(new Frame(rootName, base.root));
+        while (!stack.isEmpty()) {
+            Frame frame = stack.peek();
+            List<String> changed = changedAdvisees.get(frame.name);
+            if (!frame.expanded) {
+                frame.expanded = true;
+                for (String child : changed) {
+                    int i = (frame.old == null) ? -1 : frame.old.indexOf(entries.get(child).prof);
+                    stack.push(new Frame(child, (i >= 0) ? frame.old.advisees[i] : null));
+                }
+                continue;
+            }
+            stack.pop();
+            rebuilt.put(frame.name, copy(frame.old, entries.get(frame.name).prof,
+                    additions.get(frame.name), changed, rebuilt));
+        }
+        current.set(new Snapshot(this, rebuilt.get(rootName), version));
+    }
+
+    /**
+     * Return a copy of the node `old` of professor `prof` (null if they are new) with the new
+     * advisees `added` (null if there are none) and with the advisees named in `changed` replaced
+     * by their copies in `rebuilt`.
+     */
+    private Node copy(Node old, Professor prof, List<Professor> added, List<String> changed,
+            Map<String, Node> rebuilt) {
+        Node[] advisees = (old == null) ? NO_ADVISEES : old.advisees;
+        if (added != null) {
+            // Merge the new advisees, as leaves, into the sorted advisees.
+            List<Professor> sortedAdded = new ArrayList<>(added);
+            Collections.sort(sortedAdded);
+            Node[] merged = new Node[advisees.length + sortedAdded.size()];
+            int i = 0;
+            int j = 0;
+            for (int k = 0; k < merged.length; k++) {
+                if (j == sortedAdded.size() || (i < advisees.length
+                        && advisees[i].prof.compareTo(sortedAdded.get(j)) < 0)) {
+                    merged[k] = advisees[i++];
+                } else {
+                    merged[k] = new Node(sortedAdded.get(j++), NO_ADVISEES);
+                }
+            }
+            advisees = merged;
+        } else {
+            advisees = advisees.clone();
+        }
+        for (String child : changed) {
+            Node replacement = rebuilt.get(child);
+            advisees[Node.indexOf(advisees, replacement.prof)] = replacement;
+        }
+        return new Node(prof, advisees);
+    }
+
+    /**
+     * A changed professor whose node is being copied by `commitPending()`.
+     */
+    private static final class Frame {
+
+        /**
+         * The professor's name.
+         */
+        final String name;
+
+        /**
+         * The professor's node in the version being changed, or null if they are new.
+         */
+        final Node old;
+
+        /**
+         * Whether the professor's changed advisees have been pushed onto the stack.
+         */
+        boolean expanded;
+
+        /**
+         * Create a frame for the professor named `name`, whose node is `old`.
+         */
+        Frame(String name, Node old) {
+            this.name = name;
+            this.old = old;
+        }
+    }
+
+    /**
+     * A read-only view of one version of the genealogy, or of a subtree of it.  Queries on a
+     * snapshot always describe that version, however the genealogy has changed since, and never
+     * block.
+     */
+    public static final class Snapshot {
+
+        /**
+         * The genealogy this is a snapshot of.
+         */
+        private final ConcurrentPhDTree owner;
+
+        /**
+         * The root of the subtree this snapshot shows, in its version.
+         */
+        private final Node root;
+
+        /**
+         * The number of the version this is a snapshot of.
+         */
+        private final long version;
+
+        /**
+         * Create a snapshot of the subtree rooted at `root` in version `version` of `owner`.
+         */
+        private Snapshot(ConcurrentPhDTree owner, Node root, long version) {
+            this.owner = owner;
+            this.root = root;
+            this.version = version;
+        }
+
+        /**
+         * Return the number of the version this is a snapshot of.  Versions are numbered from 0,
+         * and each commit of insertions creates the next version.
+         */
+        public long version() {
+            return version;
+        }
+
+        /**
+         * Return the professor at the root of this tree.
+         */
+        public Professor prof() {
+            return root.prof;
+        }
+
+        /**
+         * Return the number of direct advisees of the professor at the root of this tree.
+         */
+        public int numAdvisees() {
+            return root.advisees.length;
+        }
+
+        /**
+         * Return the number of professors in this tree.
+         */
+        public int size() {
+            return root.size;
+        }
+
+        /**
+         * Return the number of professors along the longest path from the root of this tree to a
+         * professor with no advisees.
+         */
+        public int maxDepth() {
+            return root.height;
+        }
+
+        /**
+         * Return the entries of the professors from the root of this tree down to the professor
+         * named `name`, or null if there is no such professor in this tree.  Takes time
+         * proportional to the depth of that professor.
+         */
+        private List<Entry> path(String name) {
+            Entry entry = owner.entries.get(name);
+            if (entry == null || entry.version > version) {
+                return null;
+            }
+            String rootName = root.prof.name();
+            List<Entry> path = new ArrayList<>();
+            while (true) {
+                path.add(entry);
+                if (entry.prof.name().equals(rootName)) {
+                    Collections.reverse(path);
+                    return path;
+                }
+                if (entry.advisor == null) {
+                    return null;
+                }
+                entry = owner.entries.get(entry.advisor);
+            }
+        }
+
+        /**
+         * Return whether this tree contains a professor named `targetName`.
+         */
+        public boolean contains(String targetName) {
+            return path(targetName) != null;
+        }
+
+        /**
+         * Return a snapshot of the subtree with the professor named `targetName` at the root, in
+         * the same version.  Throws `NotFound` if there is no such professor in this tree.
+         */
+        public Snapshot findTree(String targetName) throws NotFound {
+            List<Entry> path = path(targetName);
+            if (path == null) {
+                throw new NotFound();
+            }
+            Node node = root;
+            for (int i = 1; i < path.size(); i++) {
+                node = node.advisees[node.indexOf(path.get(i).prof)];
+            }
+            return new Snapshot(owner, node, version);
+        }
+
+        /**
+         * Return the immediate advisor of the professor named `targetAdviseeName`, or throw
+         * `NotFound` if they are not an advising descendant of the root of this tree.
+         */
+        public Professor findAdvisor(String targetAdviseeName) throws NotFound {
+            List<Entry> path = path(targetAdviseeName);
+            if (path == null || path.size() < 2) {
+                throw new NotFound();
+            }
+            return path.get(path.size() - 2).prof;
+        }
+
+        /**
+         * Return the professors on the path from the root of this tree down to the professor
+         * named `targetName`.  Throws `NotFound` if there is no such professor in this tree.
+         */
+        public List<Professor> findAcademicLineage(String targetName) throws NotFound {
+            List<Entry> path = path(targetName);
+            if (path == null) {
+                throw new NotFound();
+            }
+            List<Professor> lineage = new ArrayList<>(path.size());
+            for (Entry entry : path) {
+                lineage.add(entry.prof);
+            }
+            return lineage;
+        }
+
+        /**
+         * Return the professor at the root of the smallest subtree of this tree that contains
+         * professors named `prof1Name` and `prof2Name`.  Throws `NotFound` if either is not in this
+         * tree.
+         */
+        public Professor commonAncestor(String prof1Name, String prof2Name) throws NotFound {
+            List<Entry> path1 = path(prof1Name);
+            List<Entry> path2 = path(prof2Name);
+            if (path1 == null || path2 == null) {
+                throw new NotFound();
+            }
+            int common = 1;
+            int max = Math.min(path1.size(), path2.size());
+            while (common < max && path1.get(common) == path2.get(common)) {
+                common++;
+            }
+            return path1.get(common - 1).prof;
+        }
+
+        /**
+         * Return a (single line) String representation of this tree, in the same format as
+         * `PhDTree.toString()`.
+         */
+        @Override
+        public String toString() {
+            StringBuilder s = new StringBuilder();
+            s.append(root.prof.name());
+            if (root.advisees.length == 0) {
+                return s.toString();
+            }
+            // Each frame is a node whose "[" has been written and the index of its next advisee.
+            ArrayDeque<Node> nodes = new ArrayDeque<>();
+            ArrayDeque<int[]> next = new ArrayDeque<>();
+            s.append('[');
+            nodes.push(root);
+            next.push(new int[]{0});
+            while (!nodes.isEmpty()) {
+                Node advisee = nodes.peek().advisees[next.peek()[0]++];
+                s.append(advisee.prof.name());
+                if (advisee.advisees.length > 0) {
+                    s.append('[');
+                    nodes.push(advisee);
+                    next.push(new int[]{0});
+                    continue;
+                }
+                while (!nodes.isEmpty() && next.peek()[0] == nodes.peek().advisees.length) {
+                    nodes.pop();
+                    next.pop();
+                    s.append(']');
+                }
+                if (!nodes.isEmpty()) {
+                    s.append(", ");
+                }
+            }
+            return s.toString();
+        }
+    }
+}
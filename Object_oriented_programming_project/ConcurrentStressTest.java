@@ -0,0 +1,305 @@
+package cs2110;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Stress-tests `ConcurrentPhDTree` with many reader threads querying it while one writer thread
+ * inserts advisees, and checks that every snapshot a reader takes is consistent.  The writer
+ * inserts advisees named by `newName()` in order, each under the advisor given by `advisorOf()`,
+ * so readers can tell exactly what any snapshot should contain from its size alone.  Each reader
+ * repeatedly takes a snapshot and checks that:
+ * <ul>
+ * <li>its version and size never decrease;</li>
+ * <li>it contains every advisee inserted before its newest one, and none inserted after;</li>
+ * <li>the newest advisee's advisor, lineage and common ancestor with their advisor are right;</li>
+ * <li>professors of the initial genealogy are found, with subtrees of plausible sizes.</li>
+ * </ul>
+ * The initial genealogy is a random tree in which each professor's advisor is chosen uniformly
+ * among the professors before them.  It prints the number of reads and insertions, the longest
+ * read, and the first inconsistency found, if any.  Exits with error code 1 if any was found.
+ */
+public final class ConcurrentStressTest {
+
+    /**
+     * Run the test configured by the program arguments `args`; see `printUsage()`.  Exit with
+     * error code 1 if arguments are invalid or an inconsistency is found.
+     */
+    public static void main(String[] args) throws InterruptedException {
+        ConcurrentStressTest test;
+        try {
+            test = new ConcurrentStressTest(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            printUsage();
+            System.exit(1);
+            return;
+        }
+        if (!test.run()) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Print a usage message to System.err.
+     */
+    public static void printUsage() {
+        System.err.println("Usage: java cs2110.ConcurrentStressTest [--readers <threads>] "
+                + "[--seconds <duration>] [--size <professors>] [--seed <seed>]");
+    }
+
+    /**
+     * The number of reader threads.
+     */
+    private int readers = 8;
+
+    /**
+     * How long the test runs, in seconds.
+     */
+    private int seconds = 10;
+
+    /**
+     * The number of professors in the initial genealogy.
+     */
+    private int size = 100_000;
+
+    /**
+     * The seed from which the initial genealogy is generated.
+     */
+    private long seed = 2110;
+
+    /**
+     * The number of reads checked by all readers.
+     */
+    private final AtomicLong reads = new AtomicLong();
+
+    /**
+     * The longest time any single read took, in nanoseconds.
+     */
+    private final AtomicLong longestReadNanos = new AtomicLong();
+
+    /**
+     * The number of inconsistencies found.
+     */
+    private final AtomicLong failures = new AtomicLong();
+
+    /**
+     * A description of the first inconsistency found, or null if none has been.
+     */
+    private final AtomicReference<String> firstFailure = new AtomicReference<>();
+
+    /**
+     * Create a test configured by the arguments `args`.  Throws `IllegalArgumentException` if they
+     * are invalid.
+     */
+    public ConcurrentStressTest(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("Missing argument after " + args[i]);
+            }
+            String option = args[i];
+            String value = args[++i];
+            try {
+                switch (option) {
+                    case "--readers":
+                        readers = Integer.parseInt(value);
+                        break;
+                    case "--seconds":
+                        seconds = Integer.parseInt(value);
+                        break;
+                    case "--size":
+                        size = Integer.parseInt(value);
+                        break;
+                    case "--seed":
+                        seed = Long.parseLong(value);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown argument " + option);
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid number after " + option);
+            }
+        }
+        if (readers <= 0 || seconds <= 0 || size <= 0) {
+            throw new IllegalArgumentException("Invalid test settings");
+        }
+    }
+
+    /**
+     * Return the name of the `i`th professor of the initial genealogy.
+     */
+    private static String baseName(int i) {
+        return "Stress Professor " + i;
+    }
+
+    /**
+     * Return the name of the `k`th advisee inserted by the writer.
+     */
+    private static String newName(int k) {
+        return "Stress Advisee " + k;
+    }
+
+    /**
+     * Return the name of the advisor of the `k`th advisee inserted by the writer, in an initial
+     * genealogy of `size` professors: an earlier advisee for two in three, so that inserted
+     * advisees form deep subtrees, otherwise a professor of the initial genealogy.
+     */
+    private static String advisorOf(int k, int size) {
+        if (k % 3 != 0) {
+            return newName(k / 2);
+        }
+        // Spread over the initial genealogy with a multiplicative hash.
+        return baseName((int) ((k * 0x9E3779B97F4A7C15L >>> 33) % size));
+    }
+
+    /**
+     * Run the readers and the writer for the configured duration, print the results and return
+     * whether no inconsistency was found.
+     */
+    public boolean run() throws InterruptedException {
+        ConcurrentPhDTree tree = initialGenealogy();
+        long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+
+        List<Thread> threads = new ArrayList<>();
+        for (int r = 0; r < readers; r++) {
+            long readerSeed = seed + r + 1;
+            threads.add(new Thread(() -> read(tree, deadline, new Random(readerSeed)),
+                    "Reader " + r));
+        }
+        int[] inserted = {0};
+        threads.add(new Thread(() -> inserted[0] = write(tree, deadline), "Writer"));
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        System.out.printf("%d readers, 1 writer, %d s on a genealogy of %d professors%n",
+                readers, seconds, size);
+        System.out.printf("Reads checked: %d (%.0f/s); longest read: %.3f ms%n", reads.get(),
+                reads.get() / (double) seconds, longestReadNanos.get() / 1e6);
+        System.out.printf("Advisees inserted: %d; final version: %d; final size: %d%n",
+                inserted[0], tree.snapshot().version(), tree.size());
+        if (tree.size() != size + inserted[0]) {
+            fail("final size " + tree.size() + " is not " + (size + inserted[0]));
+        }
+        if (failures.get() > 0) {
+            System.out.println("Inconsistencies: " + failures.get() + "; first: "
+                    + firstFailure.get());
+            return false;
+        }
+        System.out.println("No inconsistencies found.");
+        return true;
+    }
+
+    /**
+     * Return a random genealogy of `size` professors named by `baseName()`, generated from `seed`.
+     */
+    private ConcurrentPhDTree initialGenealogy() {
+        ConcurrentPhDTree tree = new ConcurrentPhDTree(new Professor(baseName(0), 1950));
+        Random random = new Random(seed);
+        for (int i = 1; i < size; i++) {
+            try {
+                tree.insert(baseName(random.nextInt(i)), new Professor(baseName(i), 1950 + i % 70));
+            } catch (NotFound e) {
+                throw new AssertionError("Advisors are inserted before their advisees", e);
+            }
+        }
+        return tree;
+    }
+
+    /**
+     * Insert advisees into `tree` in order until `deadline` (in `System.nanoTime()` terms), and
+     * return how many were inserted.
+     */
+    private int write(ConcurrentPhDTree tree, long deadline) {
+        int k = 0;
+        while (System.nanoTime() < deadline) {
+            try {
+                tree.insert(advisorOf(k, size), new Professor(newName(k), 2000 + k % 50));
+            } catch (NotFound e) {
+                fail("advisor of " + newName(k) + " not found");
+                break;
+            }
+            k++;
+        }
+        return k;
+    }
+
+    /**
+     * Check snapshots of `tree` until `deadline` (in `System.nanoTime()` terms), choosing
+     * professors of the initial genealogy with `random`.
+     */
+    private void read(ConcurrentPhDTree tree, long deadline, Random random) {
+        long lastVersion = -1;
+        int lastCount = 0;
+        long count = 0;
+        long longest = 0;
+        while (System.nanoTime() < deadline) {
+            long start = System.nanoTime();
+            ConcurrentPhDTree.Snapshot snapshot = tree.snapshot();
+            int inserted = snapshot.size() - size;
+            if (snapshot.version() < lastVersion || inserted < lastCount) {
+                fail("version " + snapshot.version() + " of size " + snapshot.size()
+                        + " follows version " + lastVersion);
+            }
+            lastVersion = snapshot.version();
+            lastCount = inserted;
+            try {
+                checkNewest(snapshot, inserted);
+                String name = baseName(random.nextInt(size));
+                int subtreeSize = snapshot.findTree(name).size();
+                if (subtreeSize < 1 || subtreeSize > snapshot.size()) {
+                    fail("subtree of " + name + " has size " + subtreeSize);
+                }
+            } catch (NotFound e) {
+                fail("a professor is missing from version " + snapshot.version());
+            }
+            longest = Math.max(longest, System.nanoTime() - start);
+            count++;
+        }
+        reads.addAndGet(count);
+        longestReadNanos.accumulateAndGet(longest, Math::max);
+    }
+
+    /**
+     * Check that `snapshot` contains exactly the first `inserted` advisees inserted by the writer,
+     * judging by the newest one and the next, and that the newest one is linked to their advisor.
+     * Throws `NotFound` if a professor that should be in it is not.
+     */
+    private void checkNewest(ConcurrentPhDTree.Snapshot snapshot, int inserted)
+            throws NotFound {
+        if (snapshot.contains(newName(inserted))) {
+            fail("version " + snapshot.version() + " contains " + newName(inserted)
+                    + " but not all earlier advisees");
+        }
+        if (inserted == 0) {
+            return;
+        }
+        String newest = newName(inserted - 1);
+        String advisor = advisorOf(inserted - 1, size);
+        if (!snapshot.findAdvisor(newest).name().equals(advisor)) {
+            fail("advisor of " + newest + " is not " + advisor);
+        }
+        List<Professor> lineage = snapshot.findAcademicLineage(newest);
+        if (lineage.size() < 2 || !lineage.get(lineage.size() - 1).name().equals(newest)
+                || !lineage.get(lineage.size() - 2).name().equals(advisor)) {
+            fail("lineage of " + newest + " does not end with " + advisor);
+        }
+        if (!snapshot.commonAncestor(newest, advisor).name().equals(advisor)) {
+            fail("common ancestor of " + newest + " and " + advisor + " is not " + advisor);
+        }
+    }
+
+    /**
+     * Record the inconsistency described by `message`.
+     */
+    private void fail(String message) {
+        failures.incrementAndGet();
+        firstFailure.compareAndSet(null, message);
+    }
+}
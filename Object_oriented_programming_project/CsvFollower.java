@@ -0,0 +1,300 @@
+package cs2110;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Follows a genealogy file in CSV format as rows are appended to it, inserting the new professors
+ * into a live tree.  Only the bytes appended since the last read are parsed, and only once they
+ * form complete lines.  Appended rows are validated as in the initial load: an invalid or
+ * duplicate row is reported to `System.err` and skipped, and a row may name an advisor who appears
+ * later in the file, so rows whose advisor is not in the tree yet wait until the advisor appears,
+ * whether in a later row or by other means, such as the "add" command (of which the follower must
+ * be told by `professorsAdded()`).  A row whose advisor has not appeared within `MAX_WAIT_SECONDS`
+ * is reported as "Advisor not found" and skipped, as an initial load would reject it.  The tree is
+ * only locked when there are new rows, or when professors were added by other means while rows
+ * wait.
+ * <p>
+ * The file is watched for changes from a daemon thread, using the file system's change
+ * notifications where available and polling it every few seconds regardless.
+ */
+final class CsvFollower {
+
+    /**
+     * The tree that followed rows are inserted into.
+     */
+    interface Target {
+
+        /**
+         * Return whether the tree contains a professor named `name`.
+         */
+        boolean contains(String name);
+
+        /**
+         * Insert `advisee` into the tree as an advisee of the professor named `advisorName`, who
+         * must be in it.
+         */
+        void insert(String advisorName, Professor advisee) throws NotFound;
+    }
+
+    /**
+     * The longest time, in seconds, between checks of the file for new rows.
+     */
+    private static final int POLL_SECONDS = 2;
+
+    /**
+     * The longest time, in seconds, that a row waits for its advisor to appear before it is
+     * skipped.
+     */
+    private static final int MAX_WAIT_SECONDS = 60;
+
+    /**
+     * A row waiting for its advisor to appear in the tree.
+     */
+    private static final class WaitingRow {
+
+        /**
+         * The row's advisee.
+         */
+        final Professor advisee;
+
+        /**
+         * The name of the row's advisor.
+         */
+        final String advisorName;
+
+        /**
+         * The time (in `System.nanoTime()` terms) after which the row is skipped if still waiting.
+         */
+        final long deadline;
+
+        /**
+         * Create a row advising `advisee` by the professor named `advisorName`, which may wait
+         * until `deadline`.
+         */
+        WaitingRow(Professor advisee, String advisorName, long deadline) {
+            this.advisee = advisee;
+            this.advisorName = advisorName;
+            this.deadline = deadline;
+        }
+    }
+
+    /**
+     * The file being followed.
+     */
+    private final Path file;
+
+    /**
+     * The file position up to which the file has been read.
+     */
+    private long position;
+
+    /**
+     * Held while inserting into `target`.
+     */
+    private final Lock lock;
+
+    /**
+     * The tree that rows are inserted into.
+     */
+    private final Target target;
+
+    /**
+     * The rows whose advisor is not in the tree yet: their advisees, by the name of the advisor.
+     */
+    private final Map<String, List<Professor>> waiting = new HashMap<>();
+
+    /**
+     * The rows in `waiting`, by the name of their advisee, in the order they started waiting (and
+     * so in order of deadline).
+     */
+    private final Map<String, WaitingRow> waitingRows = new LinkedHashMap<>();
+
+    /**
+     * Whether professors may have been added to the tree other than by this follower since the
+     * waiting rows were last checked.
+     */
+    private final AtomicBoolean professorsAdded = new AtomicBoolean();
+
+    /**
+     * Create a follower that reads `file` from file position `position`, which must be the start
+     * of a line after the root's row, and inserts the rows it reads into `target` while holding
+     * `lock`.
+     */
+    CsvFollower(Path file, long position, Lock lock, Target target) {
+        this.file = file;
+        this.position = position;
+        this.lock = lock;
+        this.target = target;
+    }
+
+    /**
+     * Note that professors may have been added to the tree other than by this follower, so that
+     * the rows waiting for their advisor are checked again on the next read.  Called while holding
+     * the lock given to this follower, after the change.
+     */
+    void professorsAdded() {
+        professorsAdded.set(true);
+    }
+
+    /**
+     * Start following the file in a new daemon thread.
+     */
+    void start() {
+        Thread thread = new Thread(this::follow, "CsvFollower " + file.getFileName());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Read the rows appended to the file whenever it may have changed, until interrupted or the
+     * file can no longer be read.
+     */
+    private void follow() {
+        Path dir = file.toAbsolutePath().getParent();
+        try (WatchService watcher = file.getFileSystem().newWatchService()) {
+            dir.register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY);
+            while (!Thread.currentThread().isInterrupted()) {
+                // Events are only hints; the file is read after every event and every timeout.
+                WatchKey key = watcher.poll(POLL_SECONDS, TimeUnit.SECONDS);
+                if (key != null) {
+                    key.pollEvents();
+                    key.reset();
+                }
+                readAppended();
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // Stopped
+        } catch (IOException e) {
+            System.err.println("Stopped following " + file + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Read the rows appended to the file since it was last read and insert them, and any waiting
+     * rows whose advisor is now in the tree, into the tree, then skip the rows that have waited too
+     * long.  Throws `IOException` if the file cannot be read.
+     */
+    void readAppended() throws IOException {
+        List<Professor> advisees = new ArrayList<>();
+        List<String> advisors = new ArrayList<>();
+        Set<String> names = new HashSet<>();
+        position = ProfessorCsvReader.readAppended(file, position,
+                new ProfessorCsvReader.RowSink() {
+                    @Override
+                    public boolean contains(String advisee) {
+                        return names.contains(advisee) || waitingRows.containsKey(advisee);
+                    }
+
+                    @Override
+                    public void add(Professor advisee, String advisor) {
+                        names.add(advisee.name());
+                        advisees.add(advisee);
+                        advisors.add(advisor);
+                    }
+                }, message -> System.err.println("Skipped a row of " + file + ": " + message));
+        // Waiting rows' advisors can only have appeared since the last check if professors were
+        // added by other means; otherwise only the new rows' advisors need checking.
+        boolean recheck = professorsAdded.getAndSet(false) && !waiting.isEmpty();
+        if (advisees.isEmpty() && !recheck) {
+            skipExpired();
+            return;
+        }
+
+        int inserted = 0;
+        lock.lock();
+        try {
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(MAX_WAIT_SECONDS);
+            Set<String> newAdvisors = new HashSet<>();
+            for (int i = 0; i < advisees.size(); i++) {
+                Professor advisee = advisees.get(i);
+                if (target.contains(advisee.name())) {
+                    System.err.println("Skipped a row of " + file + ": Duplicate Advisees");
+                    continue;
+                }
+                waiting.computeIfAbsent(advisors.get(i), k -> new ArrayList<>()).add(advisee);
+                waitingRows.put(advisee.name(), new WaitingRow(advisee, advisors.get(i), deadline));
+                newAdvisors.add(advisors.get(i));
+            }
+
+            // Insert the rows whose advisor is in the tree, then the rows waiting for those rows'
+            // professors, and so on.
+            ArrayDeque<String> ready = new ArrayDeque<>();
+            for (String advisor : recheck ? waiting.keySet() : newAdvisors) {
+                if (target.contains(advisor)) {
+                    ready.add(advisor);
+                }
+            }
+            while (!ready.isEmpty()) {
+                String advisor = ready.remove();
+                for (Professor advisee : waiting.remove(advisor)) {
+                    waitingRows.remove(advisee.name());
+                    if (target.contains(advisee.name())) {
+                        // Added to the tree by other means while the row waited.
+                        System.err.println("Skipped a row of " + file + ": Duplicate Advisees");
+                        continue;
+                    }
+                    try {
+                        target.insert(advisor, advisee);
+                    } catch (NotFound e) {
+                        throw new AssertionError(e);
+                    }
+                    inserted++;
+                    if (waiting.containsKey(advisee.name())) {
+                        ready.add(advisee.name());
+                    }
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        skipExpired();
+        if (advisees.isEmpty() && inserted == 0) {
+            return;
+        }
+        String message = "Added " + inserted + " professors from " + file;
+        if (!waitingRows.isEmpty()) {
+            message += "; rows waiting for their advisors: " + waitingRows.size();
+        }
+        System.err.println(message + ".");
+    }
+
+    /**
+     * Skip every waiting row whose deadline has passed, reporting each to `System.err`.
+     */
+    private void skipExpired() {
+        long now = System.nanoTime();
+        Iterator<WaitingRow> rows = waitingRows.values().iterator();
+        while (rows.hasNext()) {
+            WaitingRow row = rows.next();
+            if (row.deadline - now > 0) {
+                // Later rows started waiting later, so none of them has expired either.
+                return;
+            }
+            rows.remove();
+            List<Professor> siblings = waiting.get(row.advisorName);
+            siblings.remove(row.advisee);
+            if (siblings.isEmpty()) {
+                waiting.remove(row.advisorName);
+            }
+            System.err.println("Skipped a row of " + file + ": Advisor not found");
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package cs2110;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A preorder (Euler-tour) numbering of the nodes of a genealogy, together with a sparse table that
+ * answers lowest-common-ancestor queries in constant time once built (on the first such query).
+ * Also built on first use: a merge-sort tree of the professors' degree years, which counts the
+ * professors of any subtree graduating within any range of years in polylogarithmic time, and a
+ * segment tree per mentor ranking, which lists the highest-ranked professors of any subtree.
+ * Nodes are identified by their preorder number, so the nodes of any subtree have consecutive
+ * numbers starting at the subtree's root.  An index describes the genealogy as it was when the
+ * index was built; it must be discarded when the genealogy changes.  An index may be queried by
+ * several threads at once.
+ */
+final class EulerIndex {
+
+    /**
+     * The nodes of the genealogy, indexed by preorder number.  `order[0]` is the root.
+     */
+    private final PhDTree[] order;
+
+    /**
+     * The preorder number of each node's parent, indexed by preorder number.  The root's entry is
+     * -1.
+     */
+    private final int[] parents;
+
+    /**
+     * The depth of each node, indexed by preorder number.  The root has depth 0.
+     */
+    private final int[] depths;
+
+    /**
+     * `minDepth[k][i]` is the preorder number of a node of minimum depth among the nodes numbered
+     * `i` through `i + 2^k - 1`, or null if the table has not been built yet.  Built by one
+     * thread at a time while holding this index's lock, and volatile to publish it safely.
+     */
+    private volatile int[][] minDepth;
+
+    /**
+     * The degree years of the nodes' professors, indexed by preorder number, or null if the tree
+     * has not been built yet.  Built and published like `minDepth`.
+     */
+    private volatile RangeCountTree years;
+
+    /**
+     * For each mentor ranking, the value of each node by that ranking, indexed by preorder number,
+     * or null if the tree has not been built yet.  Built like `minDepth`.
+     */
+    private final AtomicReferenceArray<RangeMaxTree> rankings =
+            new AtomicReferenceArray<>(PhDTree.MentorRanking.values().length);
+
+    /**
+     * Create an index over the nodes `order`, listed in preorder, where `parents[i]` is the preorder
+     * number of the parent of `order[i]` (-1 for the root) and `depths[i]` is its depth.
+     */
+    EulerIndex(PhDTree[] order, int[] parents, int[] depths) {
+        assert order.length == parents.length && order.length == depths.length;
+        assert order.length > 0;
+        this.order = order;
+        this.parents = parents;
+        this.depths = depths;
+    }
+
+    /**
+     * Return the sparse table of minimum-depth nodes, building it first if necessary.  Building it
+     * takes O(n log n) time and space for n nodes.
+     */
+    private int[][] minDepthTable() {
+        int[][] table = minDepth;
+        if (table != null) {
+            return table;
+        }
+        synchronized (this) {
+            return (minDepth != null) ? minDepth : buildMinDepthTable();
+        }
+    }
+
+    /**
+     * Build and publish the sparse table of minimum-depth nodes, and return it.
+     */
+    private int[][] buildMinDepthTable() {
+        int n = order.length;
+        int levels = 32 - Integer.numberOfLeadingZeros(n);
+        int[][] minDepth = new int[levels][];
+        minDepth[0] = new int[n];
+        for (int i = 0; i < n; i++) {
+            minDepth[0][i] = i;
+        }
+        for (int k = 1; k < levels; k++) {
+            int half = 1 << (k - 1);
+            int[] prev = minDepth[k - 1];
+            int[] cur = new int[n - (1 << k) + 1];
+            for (int i = 0; i < cur.length; i++) {
+                cur[i] = shallower(prev[i], prev[i + half]);
+            }
+            minDepth[k] = cur;
+        }
+        this.minDepth = minDepth;
+        return minDepth;
+    }
+
+    /**
+     * Return the tree of degree years by preorder number, building it first if necessary.  Building
+     * it takes O(n log n) time and space for n nodes.
+     */
+    RangeCountTree yearTree() {
+        RangeCountTree tree = years;
+        if (tree != null) {
+            return tree;
+        }
+        synchronized (this) {
+            if (years == null) {
+                int[] values = new int[order.length];
+                for (int i = 0; i < order.length; i++) {
+                    values[i] = order[i].prof().phdYear();
+                }
+                years = new RangeCountTree(values);
+            }
+            return years;
+        }
+    }
+
+    /**
+     * Return the tree of node values by `ranking`, by preorder number, building it first if
+     * necessary.  Building it takes O(n) time and space for n nodes.
+     */
+    RangeMaxTree rankingTree(PhDTree.MentorRanking ranking) {
+        RangeMaxTree tree = rankings.get(ranking.ordinal());
+        if (tree != null) {
+            return tree;
+        }
+        synchronized (this) {
+            tree = rankings.get(ranking.ordinal());
+            if (tree == null) {
+                int[] values = new int[order.length];
+                for (int i = 0; i < order.length; i++) {
+                    values[i] = ranking.valueOf(order[i]);
+                }
+                tree = new RangeMaxTree(values);
+                rankings.set(ranking.ordinal(), tree);
+            }
+            return tree;
+        }
+    }
+
+    /**
+     * Return the number of nodes in the indexed genealogy.
+     */
+    int size() {
+        return order.length;
+    }
+
+    /**
+     * Return the node with preorder number `number`.
+     */
+    PhDTree node(int number) {
+        return order[number];
+    }
+
+    /**
+     * Return the preorder number of the parent of the node numbered `number`, or -1 if it is the
+     * root.
+     */
+    int parent(int number) {
+        return parents[number];
+    }
+
+    /**
+     * Return the depth of the node with preorder number `number`.
+     */
+    int depth(int number) {
+        return depths[number];
+    }
+
+    /**
+     * Return the preorder number of the lowest common ancestor of the nodes numbered `u` and `v`.
+     * The first call builds the sparse table.
+     */
+    int lca(int u, int v) {
+        if (u == v) {
+            return u;
+        }
+        if (u > v) {
+            int t = u;
+            u = v;
+            v = t;
+        }
+        // Among the nodes numbered u+1 through v, the shallowest one is a child of the lowest common
+        // ancestor: either the child of u leading to v, or the child of the ancestor at which the
+        // paths to u and v diverge that leads to v.
+        int[][] minDepth = minDepthTable();
+        int lo = u + 1;
+        int k = 31 - Integer.numberOfLeadingZeros(v - lo + 1);
+        int child = shallower(minDepth[k][lo], minDepth[k][v - (1 << k) + 1]);
+        return parents[child];
+    }
+
+    /**
+     * Return whichever of the nodes numbered `a` and `b` has the lesser depth.
+     */
+    private int shallower(int a, int b) {
+        return depths[a] <= depths[b] ? a : b;
+    }
+}
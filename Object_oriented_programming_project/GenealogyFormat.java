@@ -0,0 +1,73 @@
+package cs2110;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Writes the textual forms of professors and lineages straight to an `Appendable`, without
+ * building intermediate Strings, so that large outputs can be streamed.
+ */
+final class GenealogyFormat {
+
+    /**
+     * This class only has static methods.
+     */
+    private GenealogyFormat() {
+    }
+
+    /**
+     * Append the decimal representation of `value` to `out`.
+     */
+    static void appendInt(Appendable out, int value) throws IOException {
+        if (value < 0) {
+            if (value == Integer.MIN_VALUE) {
+                out.append("-2147483648");
+                return;
+            }
+            out.append('-');
+            value = -value;
+        }
+        // Find the largest power of ten not exceeding `value`, then emit digits from the top.
+        int divisor = 1;
+        while (value / divisor >= 10) {
+            divisor *= 10;
+        }
+        for (; divisor > 0; divisor /= 10) {
+            out.append((char) ('0' + value / divisor % 10));
+        }
+    }
+
+    /**
+     * Append `name` and `year` in the format NAME - YEAR used by `printProfessors()`, followed by a
+     * newline.
+     */
+    static void appendListing(Appendable out, String name, int year) throws IOException {
+        out.append(name).append(" - ");
+        appendInt(out, year);
+        out.append('\n');
+    }
+
+    /**
+     * Append `prof` in the format of `Professor.toString()`, NAME (YEAR).
+     */
+    static void appendProfessor(Appendable out, Professor prof) throws IOException {
+        out.append(prof.name()).append(" (");
+        appendInt(out, prof.phdYear());
+        out.append(')');
+    }
+
+    /**
+     * Append the professors of `lineage` to `out` in order, each in the format of
+     * `Professor.toString()`, separated by "--".
+     */
+    static void appendLineage(Appendable out, List<Professor> lineage) throws IOException {
+        boolean first = true;
+        for (Professor prof : lineage) {
+            if (!first) {
+                out.append("--");
+            }
+            first = false;
+            appendProfessor(out, prof);
+        }
+    }
+}
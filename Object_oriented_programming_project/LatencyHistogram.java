@@ -0,0 +1,110 @@
+package cs2110;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of latencies (in nanoseconds) that many threads may record into concurrently.
+ * Values are counted in buckets whose width is 1/16 of their lower bound, so percentiles are
+ * reported to within about 6% using a fixed 7.5 KiB of counters however many values are recorded.
+ */
+final class LatencyHistogram {
+
+    /**
+     * The number of bits of each value below its leading one bit that select its bucket.
+     */
+    private static final int SUB_BUCKET_BITS = 4;
+
+    /**
+     * The number of buckets between consecutive powers of two.
+     */
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    /**
+     * The number of buckets needed to cover every non-negative long.
+     */
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    /**
+     * The number of values recorded in each bucket.
+     */
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    /**
+     * Record one occurrence of the latency `nanos`.  Negative values are recorded as 0.
+     */
+    void record(long nanos) {
+        counts.getAndIncrement(bucket(Math.max(0, nanos)));
+    }
+
+    /**
+     * Return the index of the bucket counting the value `value`, which must not be negative.
+     */
+    private static int bucket(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int shift = exponent - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) ((value >>> shift) & (SUB_BUCKETS - 1));
+    }
+
+    /**
+     * Return the largest value counted by the bucket with index `bucket`.
+     */
+    private static long bucketLimit(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        long lower = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+        return lower + (1L << shift) - 1;
+    }
+
+    /**
+     * Return the number of values recorded.
+     */
+    long count() {
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            count += counts.get(i);
+        }
+        return count;
+    }
+
+    /**
+     * Return an upper bound on the smallest recorded value that at least the fraction `quantile`
+     * of the recorded values do not exceed, or 0 if no values have been recorded.  Requires
+     * `quantile` is between 0 and 1.  Values recorded concurrently may or may not be taken into
+     * account.
+     */
+    long valueAt(double quantile) {
+        long[] snapshot = new long[BUCKETS];
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+            count += snapshot[i];
+        }
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(quantile * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return bucketLimit(i);
+            }
+        }
+        return bucketLimit(BUCKETS - 1);
+    }
+
+    /**
+     * Return a one-line summary of the recorded latencies: their count and their 50th, 99th and
+     * 99.9th percentiles and maximum, in microseconds.
+     */
+    String summary() {
+        return String.format("%d queries, p50 %.1f us, p99 %.1f us, p99.9 %.1f us, max %.1f us",
+                count(), valueAt(0.5) / 1e3, valueAt(0.99) / 1e3, valueAt(0.999) / 1e3,
+                valueAt(1.0) / 1e3);
+    }
+}
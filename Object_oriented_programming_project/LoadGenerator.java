@@ -0,0 +1,255 @@
+package cs2110;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Writes a synthetic genealogy CSV file (see `SyntheticGenealogy`) together with a command script
+ * of queries about it, for replaying through `PhDApp -i` (see `ReplayHarness`).  The same
+ * arguments always produce the same files, so results of replaying them can be compared between
+ * runs.
+ */
+public final class LoadGenerator {
+
+    /**
+     * The commands that can appear in a script, with their default share of the queries.
+     */
+    private static final Map<String, Integer> DEFAULT_MIX = new LinkedHashMap<>();
+
+    static {
+        DEFAULT_MIX.put("contains", 35);
+        DEFAULT_MIX.put("advisor", 20);
+        DEFAULT_MIX.put("ancestor", 15);
+        DEFAULT_MIX.put("lineage", 15);
+        DEFAULT_MIX.put("size", 14);
+        DEFAULT_MIX.put("print", 1);
+    }
+
+    /**
+     * Write the files configured by the program arguments `args`; see `printUsage()`.  Exit with
+     * error code 1 on failure.
+     */
+    public static void main(String[] args) {
+        try {
+            new LoadGenerator(args).run();
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            printUsage();
+            System.exit(1);
+        } catch (IOException e) {
+            System.err.println("Could not write file: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Print a usage message to System.err.
+     */
+    public static void printUsage() {
+        System.err.println("Usage: java cs2110.LoadGenerator --csv <file> --script <file> "
+                + "[--size <professors>] [--shape <shape> | [--fan-out <max advisees>] "
+                + "[--depth <max depth>]] [--queries <count>] [--mix <command>=<weight>,...] "
+                + "[--miss-rate <fraction>] [--seed <seed>]");
+        System.err.println("Shapes: chain, fan_out, balanced, power_law (default: power_law)");
+        System.err.println("Default mix: " + DEFAULT_MIX.toString().replaceAll("[{} ]", ""));
+    }
+
+    /**
+     * The file to write the genealogy to.
+     */
+    private Path csvFile;
+
+    /**
+     * The file to write the command script to.
+     */
+    private Path scriptFile;
+
+    /**
+     * The number of professors in the genealogy.
+     */
+    private int size = 100_000;
+
+    /**
+     * The shape of the genealogy, or null if it is limited by `maxFanOut` and `maxDepth` instead.
+     */
+    private SyntheticGenealogy.Shape shape = SyntheticGenealogy.Shape.POWER_LAW;
+
+    /**
+     * The most advisees of any professor, if `shape` is null.
+     */
+    private int maxFanOut = Integer.MAX_VALUE;
+
+    /**
+     * The most professors on any path from the root, if `shape` is null.
+     */
+    private int maxDepth = Integer.MAX_VALUE;
+
+    /**
+     * The number of commands in the script.
+     */
+    private int queries = 100_000;
+
+    /**
+     * The relative share of each command in the script.
+     */
+    private final Map<String, Integer> mix = new LinkedHashMap<>();
+
+    /**
+     * The fraction of names in queries that are not in the genealogy.
+     */
+    private double missRate = 0.05;
+
+    /**
+     * The seed from which the genealogy and the script are generated.
+     */
+    private long seed = 2110;
+
+    /**
+     * Create a generator configured by the arguments `args`.  Throws `IllegalArgumentException` if
+     * they are invalid.
+     */
+    public LoadGenerator(String[] args) {
+        boolean shapeGiven = false;
+        boolean limitsGiven = false;
+        for (int i = 0; i < args.length; i++) {
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("Missing argument after " + args[i]);
+            }
+            String option = args[i];
+            String value = args[++i];
+            try {
+                switch (option) {
+                    case "--csv":
+                        csvFile = Path.of(value);
+                        break;
+                    case "--script":
+                        scriptFile = Path.of(value);
+                        break;
+                    case "--size":
+                        size = Integer.parseInt(value);
+                        break;
+                    case "--shape":
+                        shape = SyntheticGenealogy.Shape.parse(value);
+                        shapeGiven = true;
+                        break;
+                    case "--fan-out":
+                        maxFanOut = Integer.parseInt(value);
+                        limitsGiven = true;
+                        break;
+                    case "--depth":
+                        maxDepth = Integer.parseInt(value);
+                        limitsGiven = true;
+                        break;
+                    case "--queries":
+                        queries = Integer.parseInt(value);
+                        break;
+                    case "--mix":
+                        for (String part : value.split(",")) {
+                            String[] entry = part.trim().split("=", 2);
+                            if (entry.length != 2 || !DEFAULT_MIX.containsKey(entry[0])) {
+                                throw new IllegalArgumentException("Invalid mix entry " + part);
+                            }
+                            mix.put(entry[0], Integer.parseInt(entry[1]));
+                        }
+                        break;
+                    case "--miss-rate":
+                        missRate = Double.parseDouble(value);
+                        break;
+                    case "--seed":
+                        seed = Long.parseLong(value);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown argument " + option);
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid number after " + option);
+            }
+        }
+        if (csvFile == null || scriptFile == null) {
+            throw new IllegalArgumentException("Both --csv and --script are required");
+        }
+        if (shapeGiven && limitsGiven) {
+            throw new IllegalArgumentException("--shape cannot be combined with --fan-out or "
+                    + "--depth");
+        }
+        if (limitsGiven) {
+            shape = null;
+        }
+        if (mix.isEmpty()) {
+            mix.putAll(DEFAULT_MIX);
+        }
+        int totalWeight = 0;
+        for (int weight : mix.values()) {
+            if (weight < 0) {
+                throw new IllegalArgumentException("Mix weights must not be negative");
+            }
+            totalWeight += weight;
+        }
+        if (size <= 0 || maxFanOut <= 0 || maxDepth <= 0 || queries < 0 || totalWeight <= 0
+                || !(missRate >= 0 && missRate <= 1)) {
+            throw new IllegalArgumentException("Invalid generator settings");
+        }
+    }
+
+    /**
+     * Generate the genealogy and the script and write them to their files.
+     */
+    public void run() throws IOException {
+        SyntheticGenealogy genealogy = (shape != null)
+                ? SyntheticGenealogy.generate(shape, size, seed)
+                : SyntheticGenealogy.generate(size, maxFanOut, maxDepth, seed);
+        genealogy.writeCsv(csvFile);
+        writeScript(genealogy);
+    }
+
+    /**
+     * Write `queries` commands about `genealogy`, drawn according to the mix, to the script file.
+     */
+    private void writeScript(SyntheticGenealogy genealogy) throws IOException {
+        String[] commands = mix.keySet().toArray(new String[0]);
+        int[] cumulative = new int[commands.length];
+        int total = 0;
+        for (int i = 0; i < commands.length; i++) {
+            total += mix.get(commands[i]);
+            cumulative[i] = total;
+        }
+        // A different seed from the genealogy's, so that the queries do not follow its structure.
+        Random random = new Random(~seed);
+        try (Writer out = new BufferedWriter(
+                Files.newBufferedWriter(scriptFile, StandardCharsets.UTF_8), 1 << 16)) {
+            for (int q = 0; q < queries; q++) {
+                int pick = random.nextInt(total);
+                int c = 0;
+                while (cumulative[c] <= pick) {
+                    c++;
+                }
+                out.write(commands[c]);
+                out.write(' ');
+                out.write(randomName(genealogy, random));
+                if (commands[c].equals("ancestor")) {
+                    out.write(", ");
+                    out.write(randomName(genealogy, random));
+                }
+                out.write('\n');
+            }
+        }
+    }
+
+    /**
+     * Return the name of a professor chosen at random from `genealogy`, or, with probability
+     * `missRate`, a name that is not in it.
+     */
+    private String randomName(SyntheticGenealogy genealogy, Random random) {
+        if (random.nextDouble() < missRate) {
+            return "Missing " + random.nextInt(Integer.MAX_VALUE);
+        }
+        return genealogy.prof(random.nextInt(genealogy.size())).name();
+    }
+}
@@ -0,0 +1,220 @@
+package cs2110;
+
+import java.io.PrintWriter;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Process-wide instrumentation of the genealogy application: the number of executions, latency and
+ * nodes visited of each command, and the time taken by each phase of the most recent load of a
+ * genealogy.  Metrics are only recorded when the JVM is started with `-Dcs2110.metrics=true`.
+ * Otherwise `ENABLED` is a constant false and every recording call is guarded by it, so the JIT
+ * compiler removes the instrumentation entirely.
+ */
+final class Metrics {
+
+    /**
+     * Whether metrics are being recorded.
+     */
+    static final boolean ENABLED = Boolean.getBoolean("cs2110.metrics");
+
+    /**
+     * The statistics of one command.
+     */
+    private static final class CommandStats {
+
+        /**
+         * The time taken by each execution of the command, in nanoseconds.
+         */
+        final LatencyHistogram latency = new LatencyHistogram();
+
+        /**
+         * The number of tree nodes visited by each execution of the command.
+         */
+        final LatencyHistogram nodesVisited = new LatencyHistogram();
+    }
+
+    /**
+     * The statistics of each command executed, by command name.
+     */
+    private static final Map<String, CommandStats> commands = new ConcurrentHashMap<>();
+
+    /**
+     * The duration in nanoseconds of each phase of the most recent load, in the order the phases
+     * were first recorded.  Guarded by its own lock.
+     */
+    private static final Map<String, Long> loadPhases = new LinkedHashMap<>();
+
+    /**
+     * The number of nodes visited by the current thread since it last called
+     * `takeNodesVisited()`.
+     */
+    private static final ThreadLocal<long[]> nodesVisited =
+            ThreadLocal.withInitial(() -> new long[1]);
+
+    /**
+     * The value of `System.nanoTime()` when this class was initialized.
+     */
+    private static final long startTime = System.nanoTime();
+
+    /**
+     * This class only has static methods.
+     */
+    private Metrics() {
+    }
+
+    /**
+     * Return the current time for timing an operation with `loadPhase()`, or 0 if metrics are
+     * disabled.
+     */
+    static long now() {
+        return ENABLED ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Record that the load phase named `phase` began at time `start` (from `now()`) and has just
+     * ended.
+     */
+    static void loadPhase(String phase, long start) {
+        if (ENABLED) {
+            long nanos = System.nanoTime() - start;
+            synchronized (loadPhases) {
+                loadPhases.put(phase, nanos);
+            }
+        }
+    }
+
+    /**
+     * Record that the current thread visited `count` tree nodes while answering a query.
+     */
+    static void visited(long count) {
+        if (ENABLED) {
+            nodesVisited.get()[0] += count;
+        }
+    }
+
+    /**
+     * Return the number of tree nodes visited by the current thread since the last call, and
+     * start counting again from 0.  Returns 0 if metrics are disabled.
+     */
+    static long takeNodesVisited() {
+        if (!ENABLED) {
+            return 0;
+        }
+        long[] count = nodesVisited.get();
+        long result = count[0];
+        count[0] = 0;
+        return result;
+    }
+
+    /**
+     * Record an execution of the command named `name` that took `nanos` nanoseconds and visited
+     * `nodes` tree nodes.
+     */
+    static void command(String name, long nanos, long nodes) {
+        if (ENABLED) {
+            CommandStats stats = commands.computeIfAbsent(name, k -> new CommandStats());
+            stats.latency.record(nanos);
+            stats.nodesVisited.record(nodes);
+        }
+    }
+
+    /**
+     * Return a copy of the durations of the phases of the most recent load.
+     */
+    private static Map<String, Long> loadPhases() {
+        synchronized (loadPhases) {
+            return new LinkedHashMap<>(loadPhases);
+        }
+    }
+
+    /**
+     * Print the metrics recorded so far to `out` as a table.
+     */
+    static void printText(PrintWriter out) {
+        if (!ENABLED) {
+            out.println("Metrics are disabled. Start Java with -Dcs2110.metrics=true to record "
+                    + "them.");
+            return;
+        }
+        out.printf("Metrics over %.1f s%n", (System.nanoTime() - startTime) / 1e9);
+        Map<String, Long> phases = loadPhases();
+        if (!phases.isEmpty()) {
+            out.print("Load phases (ms):");
+            String separator = " ";
+            for (Map.Entry<String, Long> phase : phases.entrySet()) {
+                out.printf("%s%s %.1f", separator, phase.getKey(), phase.getValue() / 1e6);
+                separator = ", ";
+            }
+            out.println();
+        }
+        out.printf("%-12s %9s %9s %9s %9s %9s %9s %9s %9s%n", "command", "count", "p50 us",
+                "p99 us", "p999 us", "max us", "nodes p50", "nodes p99", "nodes max");
+        for (Map.Entry<String, CommandStats> entry : new TreeMap<>(commands).entrySet()) {
+            LatencyHistogram latency = entry.getValue().latency;
+            LatencyHistogram nodes = entry.getValue().nodesVisited;
+            out.printf("%-12s %9d %9.1f %9.1f %9.1f %9.1f %9d %9d %9d%n", entry.getKey(),
+                    latency.count(), latency.valueAt(0.5) / 1e3, latency.valueAt(0.99) / 1e3,
+                    latency.valueAt(0.999) / 1e3, latency.valueAt(1.0) / 1e3, nodes.valueAt(0.5),
+                    nodes.valueAt(0.99), nodes.valueAt(1.0));
+        }
+    }
+
+    /**
+     * Append the metrics recorded so far to `json` as the fields of a JSON object, without the
+     * enclosing braces, so that callers can add fields of their own.
+     */
+    static void appendJsonFields(StringBuilder json) {
+        json.append("\"enabled\":").append(ENABLED);
+        if (ENABLED) {
+            json.append(",\"uptime_ms\":").append((System.nanoTime() - startTime) / 1_000_000);
+            json.append(",\"load_phases_ms\":{");
+            String separator = "";
+            for (Map.Entry<String, Long> phase : loadPhases().entrySet()) {
+                json.append(separator);
+                appendJsonString(json, phase.getKey());
+                json.append(':').append(phase.getValue() / 1e6);
+                separator = ",";
+            }
+            json.append("},\"commands\":{");
+            separator = "";
+            for (Map.Entry<String, CommandStats> entry : new TreeMap<>(commands).entrySet()) {
+                LatencyHistogram latency = entry.getValue().latency;
+                LatencyHistogram nodes = entry.getValue().nodesVisited;
+                json.append(separator);
+                appendJsonString(json, entry.getKey());
+                json.append(":{\"count\":").append(latency.count())
+                        .append(",\"latency_us\":{\"p50\":").append(latency.valueAt(0.5) / 1e3)
+                        .append(",\"p99\":").append(latency.valueAt(0.99) / 1e3)
+                        .append(",\"p999\":").append(latency.valueAt(0.999) / 1e3)
+                        .append(",\"max\":").append(latency.valueAt(1.0) / 1e3)
+                        .append("},\"nodes_visited\":{\"p50\":").append(nodes.valueAt(0.5))
+                        .append(",\"p99\":").append(nodes.valueAt(0.99))
+                        .append(",\"max\":").append(nodes.valueAt(1.0))
+                        .append("}}");
+                separator = ",";
+            }
+            json.append('}');
+        }
+    }
+
+    /**
+     * Append `s` to `json` as a JSON string literal.
+     */
+    private static void appendJsonString(StringBuilder json, String s) {
+        json.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                json.append('\\').append(c);
+            } else if (c < 0x20) {
+                json.append(String.format("\\u%04x", (int) c));
+            } else {
+                json.append(c);
+            }
+        }
+        json.append('"');
+    }
+}
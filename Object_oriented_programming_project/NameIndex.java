@@ -0,0 +1,176 @@
+package cs2110;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Predicate;
+
+/**
+ * An index of the professors of a genealogy by name, which finds the professors whose names start
+ * with a given prefix in O(log n + k) time for k results.  Most professors are kept in an array
+ * sorted by name; professors added since the array was built are kept in a balanced search tree
+ * until there are enough of them to be worth merging into the array, and professors removed from
+ * the array are hidden by name until then.  An index may be searched by several threads at once,
+ * but not while a professor is being added or removed.
+ */
+final class NameIndex {
+
+    /**
+     * Orders professors by name.
+     */
+    private static final Comparator<Professor> BY_NAME = Comparator.comparing(Professor::name);
+
+    /**
+     * The fewest professors added to or removed from the index since the array was built that are
+     * merged into it.
+     */
+    private static final int MIN_MERGE_SIZE = 1024;
+
+    /**
+     * The professors in the index, sorted by name, apart from those in `added`, and professors
+     * with names in `removed` that are no longer in the index.
+     */
+    private Professor[] sorted;
+
+    /**
+     * The professors added to the index since `sorted` was built, by name.
+     */
+    private final TreeMap<String, Professor> added = new TreeMap<>();
+
+    /**
+     * The names of the professors in `sorted` that have been removed from the index since it was
+     * built.  A professor with the same name may have been added again, to `added`.
+     */
+    private final Set<String> removed = new HashSet<>();
+
+    /**
+     * Create an index of the professors `profs`, whose names must be distinct.  Takes O(n log n)
+     * time for n professors.
+     */
+    NameIndex(Collection<Professor> profs) {
+        sorted = profs.toArray(new Professor[0]);
+        Arrays.parallelSort(sorted, BY_NAME);
+    }
+
+    /**
+     * Add `prof` to this index.  Requires no professor in the index has the same name.  Takes
+     * O(log n) amortized time.
+     */
+    void add(Professor prof) {
+        added.put(prof.name(), prof);
+        mergeIfWorthwhile();
+    }
+
+    /**
+     * Remove the professor named `name` from this index.  Requires it is in the index.  Takes
+     * O(log n) amortized time.
+     */
+    void remove(String name) {
+        if (added.remove(name) == null) {
+            removed.add(name);
+        }
+        mergeIfWorthwhile();
+    }
+
+    /**
+     * Merge the changes since `sorted` was built into it if there are enough of them.
+     */
+    private void mergeIfWorthwhile() {
+        if (added.size() + removed.size() >= Math.max(MIN_MERGE_SIZE, sorted.length / 8)) {
+            merge();
+        }
+    }
+
+    /**
+     * Merge the professors in `added` into `sorted`, dropping those named in `removed`.
+     */
+    private void merge() {
+        Professor[] merged = new Professor[sorted.length + added.size()];
+        Iterator<Professor> extra = added.values().iterator();
+        Professor next = extra.hasNext() ? extra.next() : null;
+        int i = 0;
+        int j = 0;
+        while (i < sorted.length || next != null) {
+            if (next == null
+                    || (i < sorted.length && sorted[i].name().compareTo(next.name()) < 0)) {
+                Professor prof = sorted[i++];
+                if (!removed.contains(prof.name())) {
+                    merged[j++] = prof;
+                }
+            } else {
+                merged[j++] = next;
+                next = extra.hasNext() ? extra.next() : null;
+            }
+        }
+        sorted = (j == merged.length) ? merged : Arrays.copyOf(merged, j);
+        added.clear();
+        removed.clear();
+    }
+
+    /**
+     * Return the first `limit` professors (or all of them, if there are fewer) in the index whose
+     * names start with `prefix` and that satisfy `filter`, in increasing order of name.  Requires
+     * `limit` is not negative.
+     */
+    List<Professor> search(String prefix, int limit, Predicate<Professor> filter) {
+        List<Professor> result = new ArrayList<>(Math.min(limit, 16));
+        int i = lowerBound(prefix);
+        Iterator<Professor> extra = added.tailMap(prefix, true).values().iterator();
+        Professor fromArray = (i < sorted.length) ? sorted[i] : null;
+        Professor fromAdded = extra.hasNext() ? extra.next() : null;
+        int visited = 0;
+        while (result.size() < limit) {
+            // Take the smaller of the next names from each source, as in a merge.
+            Professor prof;
+            if (fromArray != null && (fromAdded == null
+                    || fromArray.name().compareTo(fromAdded.name()) < 0)) {
+                prof = fromArray;
+                i++;
+                fromArray = (i < sorted.length) ? sorted[i] : null;
+                if (!removed.isEmpty() && removed.contains(prof.name())
+                        && prof.name().startsWith(prefix)) {
+                    continue;
+                }
+            } else if (fromAdded != null) {
+                prof = fromAdded;
+                fromAdded = extra.hasNext() ? extra.next() : null;
+            } else {
+                break;
+            }
+            if (!prof.name().startsWith(prefix)) {
+                // Names with the prefix are contiguous in name order, so none are left.
+                break;
+            }
+            visited++;
+            if (filter.test(prof)) {
+                result.add(prof);
+            }
+        }
+        Metrics.visited(visited);
+        return result;
+    }
+
+    /**
+     * Return the index in `sorted` of the first professor whose name is not less than `name`, or
+     * `sorted.length` if there is none.
+     */
+    private int lowerBound(String name) {
+        int lo = 0;
+        int hi = sorted.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (sorted[mid].name().compareTo(name) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+}
@@ -1,16 +1,38 @@
 package cs2110;
 
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.io.Reader;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Locale;
 import java.util.NoSuchElementException;
 import java.util.Scanner;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
  * The main program of the A4 assignment. It reads an academic genealogy in CSV format and supports
@@ -59,11 +81,121 @@ public class PhDApp {
      */
     private String csvFileName = "professors.csv";
 
+    /**
+     * Name of a snapshot file (see `PhDSnapshot`) to read the genealogy tree from instead of the CSV
+     * file, or an empty string if the CSV file should be read.
+     */
+    private String snapshotFileName = "";
+
+    /**
+     * Whether the genealogy tree file should be parsed on multiple threads.
+     */
+    private boolean parallelLoad = false;
+
+    /**
+     * Whether commands should be executed in batch mode (see `processCommandsInBatches()`).
+     */
+    private boolean batchMode = false;
+
+    /**
+     * Whether rows appended to the genealogy tree file should be inserted into the tree as they
+     * are written (see `CsvFollower`).
+     */
+    private boolean follow = false;
+
+    /**
+     * The length of the genealogy tree file when it was loaded, if it is to be followed.
+     */
+    private long followPosition;
+
+    /**
+     * The follower inserting rows appended to the genealogy tree file, or null if it is not
+     * followed.  Told of every professor added to the tree by other means.
+     */
+    private CsvFollower follower;
+
+    /**
+     * Name of the write-ahead log file (see `WriteAheadLog`) that the changes made by the "add",
+     * "move" and "remove" commands are appended to, or an empty string if they are not logged.
+     * The log is compacted into a snapshot named after it with the suffix ".snapshot", which
+     * replaces the genealogy tree file (or snapshot file) once it exists.
+     */
+    private String logFileName = "";
+
+    /**
+     * The write-ahead log of the changes made to `professorTree`, or null if they are not logged.
+     */
+    private WriteAheadLog changeLog;
+
+    /**
+     * The length in bytes beyond which the write-ahead log is compacted, so that replaying it when
+     * the application restarts takes a bounded time.
+     */
+    private static final long COMPACTION_LENGTH = 1 << 22;
+
+    /**
+     * Runs the compactions of the write-ahead log, one at a time, off the command thread.
+     */
+    private ExecutorService compactor;
+
+    /**
+     * Whether a compaction of the write-ahead log has been started and not finished.
+     */
+    private final AtomicBoolean compacting = new AtomicBoolean();
+
+    /**
+     * Read-locked while a command that only reads `professorTree` is executed, and write-locked
+     * while any other command is executed or rows followed from the genealogy tree file are
+     * inserted.  The write-ahead log is compacted while holding a read lock.
+     */
+    private final ReentrantReadWriteLock treeLock = new ReentrantReadWriteLock();
+
+    /**
+     * The port on which to serve queries over TCP (see `serve()`), or -1 if commands should be
+     * read from the command input source instead.
+     */
+    private int servePort = -1;
+
     /**
      * The academic genealogy tree to be read and queried.
      */
     private PhDTree professorTree;
 
+    /**
+     * The default number of query results cached by `queryCache`.
+     */
+    private static final int DEFAULT_CACHE_SIZE = 1 << 14;
+
+    /**
+     * The number of query results to cache, or 0 if results should not be cached.
+     */
+    private int cacheSize = DEFAULT_CACHE_SIZE;
+
+    /**
+     * Caches the results of the "advisor", "ancestor" and "lineage" commands on `professorTree`.
+     * Must be cleared whenever `professorTree` is replaced, and told of every professor inserted
+     * into, moved within or removed from it.
+     */
+    private QueryCache queryCache;
+
+    /**
+     * Receives the name and duration of each command executed by `processCommands()`.
+     */
+    interface CommandObserver {
+
+        /**
+         * Record that a command named `name` (in lower case) took `nanos` nanoseconds to execute
+         * and to flush its output.
+         */
+        void executed(String name, long nanos);
+    }
+
+    /**
+     * Notified of every command executed by `processCommands()`, or null if commands are not
+     * being timed.
+     */
+    private CommandObserver commandObserver;
+
     /**
      * Create a new application instance and configure it from the arguments in `args`. See output
      * of `printUsage()` for valid arguments.  Throws `IllegalArgumentException` if arguments are
@@ -71,16 +203,63 @@ public class PhDApp {
      */
     public PhDApp(String[] args) throws IllegalArgumentException {
         processProgramArguments(args);
+        queryCache = new QueryCache(cacheSize);
     }
 
     /**
-     * Create a PhDTree from the contents of the configured genealogy tree file, then read and
-     * respond to queries from the configured command input source.  Return false if a PhDTree could
-     * not be read from the file, otherwise true.
+     * Create a PhDTree from the contents of the configured genealogy tree file (or snapshot file),
+     * then read and respond to queries from the configured command input source (or from network
+     * clients in server mode).  Return false if a PhDTree could not be read from the file or
+     * queries could not be served, otherwise true.
      */
     public boolean run() {
+        if (!loadTree()) {
+            return false;
+        }
+        if (follow) {
+            startFollowing();
+        }
+        try {
+            if (servePort >= 0) {
+                return serve();
+            } else if (batchMode) {
+                processCommandsInBatches(ForkJoinPool.commonPool());
+            } else {
+                processCommands();
+            }
+            return true;
+        } finally {
+            closeLog();
+        }
+    }
+
+    /**
+     * Read the tree to be queried from the configured genealogy tree file (or snapshot file), or
+     * from the snapshot of the write-ahead log if it has one, then apply the changes in the log.
+     * Return false, after printing a message to `System.err`, if it could not be read.
+     */
+    boolean loadTree() {
         try {
-            professorTree = csvToTree(new FileReader(csvFileName));
+            long baseLsn = 0;
+            if (!logFileName.isEmpty() && Files.exists(logSnapshotPath())) {
+                professorTree = PhDSnapshot.load(logSnapshotPath());
+                baseLsn = PhDSnapshot.lsn(logSnapshotPath());
+            } else if (!snapshotFileName.isEmpty()) {
+                professorTree = PhDSnapshot.load(Path.of(snapshotFileName));
+                baseLsn = PhDSnapshot.lsn(Path.of(snapshotFileName));
+            } else if (follow) {
+                // Only load complete lines; the follower reads the rest once it is written.
+                followPosition = ProfessorCsvReader.completeLength(Path.of(csvFileName));
+                professorTree = csvToTree(Path.of(csvFileName), followPosition);
+            } else if (parallelLoad) {
+                professorTree = csvToTree(Path.of(csvFileName), ForkJoinPool.commonPool());
+            } else {
+                professorTree = csvToTree(Path.of(csvFileName));
+            }
+            queryCache.clear();
+            if (!logFileName.isEmpty()) {
+                openLog(baseLsn);
+            }
         } catch (IOException e) {
             System.err.println("Could not read tree file: " + e.getMessage());
             return false;
@@ -88,15 +267,96 @@ public class PhDApp {
             System.err.println("Invalid file format: " + e.getMessage());
             return false;
         }
-        processCommands();
         return true;
     }
 
+    /**
+     * Return the path of the snapshot that the write-ahead log is compacted into.
+     */
+    private Path logSnapshotPath() {
+        return Path.of(logFileName + ".snapshot");
+    }
+
+    /**
+     * Open the write-ahead log and apply the changes in it with log sequence numbers greater than
+     * `baseLsn`, which the tree already includes, to the tree.
+     */
+    private void openLog(long baseLsn) throws IOException, InputFormatException {
+        long start = Metrics.now();
+        int[] replayed = {0};
+        changeLog = WriteAheadLog.open(Path.of(logFileName), baseLsn, change -> {
+            try {
+                applyChange(change.type, change.name, change.year, change.advisor);
+                replayed[0]++;
+            } catch (NotFound | IllegalArgumentException e) {
+                // Changes are checked before they are logged, so the tree must have been
+                // replaced by one they do not apply to.
+                System.err.println("Skipped change " + change.lsn + " of " + logFileName
+                        + ": it does not apply to the tree.");
+            }
+        });
+        Metrics.loadPhase("replay", start);
+        if (replayed[0] > 0) {
+            System.err.println("Replayed " + replayed[0] + " changes from " + logFileName + ".");
+        }
+        compactor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "Compactor " + logFileName);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Wait for any compaction of the write-ahead log to finish, then sync and close the log, if
+     * there is one.
+     */
+    private void closeLog() {
+        if (changeLog == null) {
+            return;
+        }
+        compactor.shutdown();
+        try {
+            compactor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            changeLog.close();
+        } catch (IOException e) {
+            System.err.println("Could not write to " + logFileName + ": " + e.getMessage());
+        }
+        changeLog = null;
+    }
+
+    /**
+     * Start inserting the rows appended to the genealogy tree file after `loadTree()` read it into
+     * the tree, as they are written.
+     */
+    private void startFollowing() {
+        follower = new CsvFollower(Path.of(csvFileName), followPosition,
+                treeLock.writeLock(), new CsvFollower.Target() {
+                    @Override
+                    public boolean contains(String name) {
+                        return professorTree.contains(name);
+                    }
+
+                    @Override
+                    public void insert(String advisorName, Professor advisee) throws NotFound {
+                        professorTree.insert(advisorName, advisee);
+                        queryCache.inserted(advisee.name());
+                    }
+                });
+        follower.start();
+    }
+
     /**
      * Print a usage message to System.err.
      */
     public static void printUsage() {
-        System.err.println("Usage: java cs2110.PhDApp [--help] [-i <input script>] [filename.csv]");
+        System.err.println(
+                "Usage: java cs2110.PhDApp [--help] [--parallel] [--snapshot <snapshot file>] "
+                        + "[--batch] [--serve <port>] [--cache <entries>] [--follow] "
+                        + "[--wal <log file>] [-i <input script>] [filename.csv]");
     }
 
     /**
@@ -113,6 +373,54 @@ public class PhDApp {
                 } else {
                     throw new IllegalArgumentException("Missing argument after -i");
                 }
+            } else if (args[i].equals("--snapshot")) {
+                if (i + 1 < args.length) {
+                    snapshotFileName = args[i + 1];
+                    i++;
+                } else {
+                    throw new IllegalArgumentException("Missing argument after --snapshot");
+                }
+            } else if (args[i].equals("--serve")) {
+                if (i + 1 < args.length) {
+                    try {
+                        servePort = Integer.parseInt(args[i + 1]);
+                    } catch (NumberFormatException e) {
+                        throw new IllegalArgumentException("Invalid port after --serve");
+                    }
+                    if (servePort < 0 || servePort > 65535) {
+                        throw new IllegalArgumentException("Invalid port after --serve");
+                    }
+                    i++;
+                } else {
+                    throw new IllegalArgumentException("Missing argument after --serve");
+                }
+            } else if (args[i].equals("--cache")) {
+                if (i + 1 < args.length) {
+                    try {
+                        cacheSize = Integer.parseInt(args[i + 1]);
+                    } catch (NumberFormatException e) {
+                        throw new IllegalArgumentException("Invalid size after --cache");
+                    }
+                    if (cacheSize < 0) {
+                        throw new IllegalArgumentException("Invalid size after --cache");
+                    }
+                    i++;
+                } else {
+                    throw new IllegalArgumentException("Missing argument after --cache");
+                }
+            } else if (args[i].equals("--wal")) {
+                if (i + 1 < args.length) {
+                    logFileName = args[i + 1];
+                    i++;
+                } else {
+                    throw new IllegalArgumentException("Missing argument after --wal");
+                }
+            } else if (args[i].equals("--parallel")) {
+                parallelLoad = true;
+            } else if (args[i].equals("--batch")) {
+                batchMode = true;
+            } else if (args[i].equals("--follow")) {
+                follow = true;
             } else if (args[i].equals("--help")) {
                 throw new IllegalArgumentException("Help requested");
             } else {
@@ -126,13 +434,78 @@ public class PhDApp {
         if (i != args.length) {
             throw new IllegalArgumentException("Too many arguments");
         }
+        if (follow && !snapshotFileName.isEmpty()) {
+            throw new IllegalArgumentException("Only a CSV file can be followed, not a snapshot");
+        }
+        if (follow && !logFileName.isEmpty()) {
+            throw new IllegalArgumentException("A followed CSV file cannot be logged");
+        }
     }
 
     /**
      * Returns a PhDTree representation of the CSV file named by filename.  Throws
-     * `InputFormatException` if the file format is invalid or represents an invalid tree.
+     * `InputFormatException` if the file format is invalid or represents an invalid tree.  The first
+     * row after the header is the root; the remaining rows may appear in any order.
      */
     public static PhDTree csvToTree(Reader in) throws InputFormatException {
+        long start = Metrics.now();
+        PhDTreeBuilder builder = readCsv(in);
+        Metrics.loadPhase("parse", start);
+        return builder.build();
+    }
+
+    /**
+     * Returns a PhDTree representation of the CSV file `file`, which is read through a memory
+     * mapping.  Accepts the same input and throws the same exceptions as `csvToTree(Reader)`, but
+     * faster, and throws `IOException` if the file cannot be read.
+     */
+    public static PhDTree csvToTree(Path file) throws IOException, InputFormatException {
+        long start = Metrics.now();
+        PhDTreeBuilder builder = ProfessorCsvReader.read(file);
+        Metrics.loadPhase("parse", start);
+        return builder.build();
+    }
+
+    /**
+     * Returns a PhDTree representation of the first `length` bytes of the CSV file `file`, as if
+     * the file ended there.  Otherwise like `csvToTree(Path)`.
+     */
+    static PhDTree csvToTree(Path file, long length) throws IOException, InputFormatException {
+        long start = Metrics.now();
+        PhDTreeBuilder builder = ProfessorCsvReader.read(file, length);
+        Metrics.loadPhase("parse", start);
+        return builder.build();
+    }
+
+    /**
+     * Returns a PhDTree representation of the CSV file `file`, parsing chunks of the file and then
+     * linking all rows in parallel on `pool`; only assembling the tree is sequential.  Accepts the
+     * same input and throws the same exceptions as `csvToTree(Path)`.
+     */
+    public static PhDTree csvToTree(Path file, ForkJoinPool pool)
+            throws IOException, InputFormatException {
+        long start = Metrics.now();
+        PhDTreeBuilder builder = ProfessorCsvReader.readParallel(file, pool);
+        Metrics.loadPhase("parse", start);
+        return builder.build();
+    }
+
+    /**
+     * Returns a compact, read-only representation of the genealogy in CSV format read from `in`.
+     * Throws `InputFormatException` under the same conditions as `csvToTree()`.
+     */
+    public static CompactPhDTree csvToCompactTree(Reader in) throws InputFormatException {
+        long start = Metrics.now();
+        PhDTreeBuilder builder = readCsv(in);
+        Metrics.loadPhase("parse", start);
+        return builder.buildCompact();
+    }
+
+    /**
+     * Returns a builder holding every row of the genealogy in CSV format read from `in`, ready to be
+     * linked.  Throws `InputFormatException` if the header is invalid.
+     */
+    private static PhDTreeBuilder readCsv(Reader in) throws InputFormatException {
         try (Scanner sc = new Scanner(in)) {
             // Read and validate header
             String[] header = sc.nextLine().split(",", -1);
@@ -144,7 +517,6 @@ public class PhDApp {
             int PhdYear;
             String advisor;
             String advisee;
-            Professor prof;
             // Initialize the tree
             if (root.length != 3) {
                 throw new UnsupportedOperationException("Unexpected number of entries");
@@ -154,8 +526,10 @@ public class PhDApp {
             } catch (NumberFormatException e) {
                 throw new UnsupportedOperationException("Advisee year must be integer");
             }
-            Professor rootprof = new Professor(root[0], PhdYear);
-            PhDTree tree = new PhDTree(rootprof);
+            // Rows are only collected here; they are linked into a tree once all have been read,
+            // so an advisee's row may precede their advisor's.
+            PhDTreeBuilder builder = new PhDTreeBuilder();
+            builder.add(root[0], PhdYear, root[2]);
 
             while (sc.hasNext()) {
                 String[] line = sc.nextLine().split(",", -1);
@@ -163,23 +537,18 @@ public class PhDApp {
                     throw new UnsupportedOperationException("Unexpected entry format");
                 }
                 advisee = line[0];
-                if (tree.contains(advisee)) {
+                if (builder.contains(advisee)) {
                     throw new UnsupportedOperationException("Duplicate Advisees");
                 }
                 try {
-                    PhdYear = Integer.valueOf(line[1]);
+                    PhdYear = Integer.parseInt(line[1]);
                 } catch (NumberFormatException e) {
                     throw new UnsupportedOperationException("Advisee year must be integer");
                 }
                 advisor = line[2];
-                prof = new Professor(advisee, PhdYear);
-                try {
-                    tree.insert(advisor, prof);
-                } catch (NotFound e) {
-                    throw new UnsupportedOperationException("Advisor not found");
-                }
+                builder.add(advisee, PhdYear, advisor);
             }
-            return tree;
+            return builder;
         }
     }
 
@@ -202,46 +571,22 @@ public class PhDApp {
                 return;
             }
         }
+        PrintWriter out = new PrintWriter(System.out);
         while (true) {
             if (inputFile.isEmpty()) {
-                System.out.print("Please enter a command: ");
+                out.print("Please enter a command: ");
+                out.flush();
             }
             try {
-                String input = sc.nextLine().trim();
-                String[] cmdParts = input.split("\\s+", 2);
-                String cmd = cmdParts[0].toLowerCase();
-                String arg = (cmdParts.length > 1) ? cmdParts[1] : "";
-                try {
-                    switch (cmd) {
-                        case "help":
-                            doHelp();
-                            break;
-                        case "print":
-                            doPrint(arg);
-                            break;
-                        case "contains":
-                            doContains(arg);
-                            break;
-                        case "size":
-                            doSize(arg);
-                            break;
-                        case "advisor":
-                            doAdvisor(arg);
-                            break;
-                        case "ancestor":
-                            doAncestor(arg);
-                            break;
-                        case "lineage":
-                            doLineage(arg);
-                            break;
-                        case "exit":
-                            return;
-                        default:
-                            System.out.println(
-                                    "This is not a valid command. For help, enter the command \"help\"");
-                    }
-                } catch (IllegalArgumentException e) {
-                    invalidCommand(cmd, e.getMessage());
+                Command command = Command.parse(sc.nextLine());
+                long start = (commandObserver != null) ? System.nanoTime() : 0;
+                boolean more = execute(command, out);
+                out.flush();
+                if (commandObserver != null) {
+                    commandObserver.executed(command.name, System.nanoTime() - start);
+                }
+                if (!more) {
+                    return;
                 }
             } catch (NoSuchElementException exc) {
                 // no more lines on input
@@ -251,36 +596,410 @@ public class PhDApp {
     }
 
     /**
-     * Print a message about the command being invalid to `System.out`.
+     * Notify `observer` of every command executed by `processCommands()` from now on, with the
+     * time it took; null stops notifications.
+     */
+    void setCommandObserver(CommandObserver observer) {
+        commandObserver = observer;
+    }
+
+    /**
+     * Read commands from the configured input source and execute them on `pool`, printing the
+     * same output to `System.out` as `processCommands()` would (without prompts).  Runs of
+     * consecutive read-only commands are answered in parallel against the current tree and their
+     * output is written in input order; any other command waits for all earlier commands to
+     * finish and runs alone.  Output is buffered, so it appears in large blocks.
+     */
+    public void processCommandsInBatches(ForkJoinPool pool) {
+        BufferedReader in;
+        if (inputFile.isEmpty()) {
+            in = new BufferedReader(new InputStreamReader(System.in), INPUT_BUFFER_SIZE);
+        } else {
+            try {
+                in = new BufferedReader(new FileReader(inputFile), INPUT_BUFFER_SIZE);
+            } catch (IOException exc) {
+                System.err.println(exc.getMessage());
+                return;
+            }
+        }
+        PrintWriter out = new PrintWriter(
+                new BufferedWriter(new OutputStreamWriter(System.out), OUTPUT_BUFFER_SIZE));
+        List<Command> queries = new ArrayList<>(BATCH_SIZE);
+        try (in) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                Command command = Command.parse(line);
+                if (isReadOnly(command.name)) {
+                    queries.add(command);
+                    if (queries.size() == BATCH_SIZE) {
+                        executeInParallel(queries, pool, out);
+                        queries.clear();
+                    }
+                    continue;
+                }
+                executeInParallel(queries, pool, out);
+                queries.clear();
+                if (!execute(command, out)) {
+                    break;
+                }
+            }
+            executeInParallel(queries, pool, out);
+        } catch (IOException exc) {
+            System.err.println(exc.getMessage());
+        } finally {
+            out.flush();
+        }
+    }
+
+    /**
+     * Answer read-only commands from TCP clients on the configured port until the process is
+     * stopped (see `QueryServer`).  Other commands are refused, and "exit" closes the client's
+     * connection.  A report of throughput and latency is printed when the process stops.  Return
+     * false if the port could not be served.
+     */
+    public boolean serve() {
+        QueryServer server;
+        try {
+            server = new QueryServer(servePort, this::answerRemote);
+        } catch (IOException e) {
+            System.err.println("Could not serve queries: " + e.getMessage());
+            return false;
+        }
+        // The server runs until the process is stopped, so it is closed by a shutdown hook.
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                server.close();
+            } catch (IOException e) {
+                // Stopping anyway
+            }
+            System.out.println(server.report());
+            System.out.flush();
+        }));
+        System.out.println("Serving queries on port " + server.port() + ".");
+        try {
+            server.serve();
+            return true;
+        } catch (IOException e) {
+            System.err.println("Could not serve queries: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Answer the command `line` from a network client, writing its output to `out`.  Return false
+     * if the client asked to close the connection.
+     */
+    private boolean answerRemote(String line, PrintWriter out) {
+        Command command = Command.parse(line);
+        if (command.name.equals("exit")) {
+            return false;
+        }
+        if (isReadOnly(command.name) || command.name.equals("stats")) {
+            execute(command, out);
+        } else {
+            out.println("This command is not available on the server.");
+        }
+        return true;
+    }
+
+    /**
+     * The number of read-only commands read before they are answered in batch mode.
+     */
+    private static final int BATCH_SIZE = 1 << 14;
+
+    /**
+     * The fewest read-only commands answered by a single task in batch mode.
+     */
+    private static final int MIN_SLICE_SIZE = 256;
+
+    /**
+     * The size (in chars) of the buffer that commands are read into in batch mode.
+     */
+    private static final int INPUT_BUFFER_SIZE = 1 << 16;
+
+    /**
+     * The size (in chars) of the buffer that output is written from in batch mode.
+     */
+    private static final int OUTPUT_BUFFER_SIZE = 1 << 16;
+
+    /**
+     * Execute the read-only commands `queries` in slices on `pool`, then write their output to
+     * `out` in order.
+     */
+    private void executeInParallel(List<Command> queries, ForkJoinPool pool, PrintWriter out) {
+        int n = queries.size();
+        if (n == 0) {
+            return;
+        }
+        int sliceSize = Math.max(MIN_SLICE_SIZE, n / (4 * pool.getParallelism()) + 1);
+        List<StringWriter> outputs = new ArrayList<>();
+        List<ForkJoinTask<?>> tasks = new ArrayList<>();
+        for (int from = 0; from < n; from += sliceSize) {
+            int start = from;
+            int end = Math.min(n, from + sliceSize);
+            StringWriter output = new StringWriter();
+            outputs.add(output);
+            tasks.add(pool.submit(() -> {
+                PrintWriter sliceOut = new PrintWriter(output);
+                for (int i = start; i < end; i++) {
+                    execute(queries.get(i), sliceOut);
+                }
+                sliceOut.flush();
+            }));
+        }
+        for (ForkJoinTask<?> task : tasks) {
+            task.join();
+        }
+        for (StringWriter output : outputs) {
+            out.append(output.getBuffer());
+        }
+    }
+
+    /**
+     * Return whether the command named `name` only reads the tree, so that it may run concurrently
+     * with other such commands.
+     */
+    private static boolean isReadOnly(String name) {
+        switch (name) {
+            case "help":
+            case "print":
+            case "contains":
+            case "size":
+            case "advisor":
+            case "ancestor":
+            case "lineage":
+            case "search":
+            case "cohort":
+            case "topmentors":
+            case "isdescendant":
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Execute `command`, writing its output and any error message to `out`.  Return false if it is
+     * the "exit" command, otherwise true.  Holds `treeLock` while executing it, and records the
+     * command in `Metrics` and emits a `CommandEvent` for it, if either is enabled.
+     */
+    private boolean execute(Command command, PrintWriter out) {
+        CommandEvent event = null;
+        if (CommandEvent.isTypeEnabled()) {
+            event = new CommandEvent();
+            event.begin();
+        }
+        long start = Metrics.now();
+        Metrics.takeNodesVisited();
+        Lock lock = isReadOnly(command.name) ? treeLock.readLock() : treeLock.writeLock();
+        boolean more;
+        lock.lock();
+        try {
+            more = dispatch(command, out);
+        } finally {
+            lock.unlock();
+        }
+        long nodes = Metrics.takeNodesVisited();
+        if (Metrics.ENABLED) {
+            // Group unknown commands together rather than keeping one entry per typo.
+            String name = COMMAND_NAMES.contains(command.name) ? command.name : "(invalid)";
+            Metrics.command(name, System.nanoTime() - start, nodes);
+        }
+        if (event != null && event.shouldCommit()) {
+            event.command = command.name;
+            event.arguments = command.arg;
+            event.nodesVisited = nodes;
+            event.commit();
+        }
+        return more;
+    }
+
+    /**
+     * The names of all commands.
+     */
+    private static final Set<String> COMMAND_NAMES = Set.of("help", "print", "contains", "size",
+            "advisor", "ancestor", "lineage", "search", "cohort", "topmentors", "ancestors",
+            "isdescendant", "add", "move", "remove", "save", "load", "stats", "exit");
+
+    /**
+     * Execute `command` as described by `execute()`.
+     */
+    private boolean dispatch(Command command, PrintWriter out) {
+        String cmd = command.name;
+        String arg = command.arg;
+        try {
+            switch (cmd) {
+                case "help":
+                    doHelp(out);
+                    break;
+                case "print":
+                    doPrint(arg, out);
+                    break;
+                case "contains":
+                    doContains(arg, out);
+                    break;
+                case "size":
+                    doSize(arg, out);
+                    break;
+                case "advisor":
+                    doAdvisor(arg, out);
+                    break;
+                case "ancestor":
+                    doAncestor(arg, out);
+                    break;
+                case "lineage":
+                    doLineage(arg, out);
+                    break;
+                case "search":
+                    doSearch(arg, out);
+                    break;
+                case "cohort":
+                    doCohort(arg, out);
+                    break;
+                case "topmentors":
+                    doTopMentors(arg, out);
+                    break;
+                case "ancestors":
+                    doAncestors(arg, out);
+                    break;
+                case "isdescendant":
+                    doIsDescendant(arg, out);
+                    break;
+                case "add":
+                    doAdd(arg, out);
+                    break;
+                case "move":
+                    doMove(arg, out);
+                    break;
+                case "remove":
+                    doRemove(arg, out);
+                    break;
+                case "save":
+                    doSave(arg, out);
+                    break;
+                case "load":
+                    doLoad(arg, out);
+                    break;
+                case "stats":
+                    doStats(arg, out);
+                    break;
+                case "exit":
+                    return false;
+                default:
+                    out.println(
+                            "This is not a valid command. For help, enter the command \"help\"");
+            }
+        } catch (IllegalArgumentException e) {
+            invalidCommand(cmd, e.getMessage(), out);
+        }
+        return true;
+    }
+
+    /**
+     * A line of command input, split into the command name (in lower case) and its arguments.
      */
-    private static void invalidCommand(String cmd, String message) {
-        System.out.println("Invalid " + cmd + " command: " + message);
-        System.out.println("Enter the command \"help\" for information about that command.");
+    private static final class Command {
+
+        /**
+         * The first word of the line, in lower case.
+         */
+        final String name;
+
+        /**
+         * The rest of the line after the whitespace following the first word; empty if there is
+         * none.
+         */
+        final String arg;
+
+        /**
+         * Create a command named `name` with arguments `arg`.
+         */
+        private Command(String name, String arg) {
+            this.name = name;
+            this.arg = arg;
+        }
+
+        /**
+         * Return the command on the line `line`, ignoring surrounding whitespace.  The command
+         * name ends at the first whitespace character (space, tab, line feed, vertical tab, form
+         * feed or carriage return); the arguments start after the run of whitespace that follows
+         * it.  This scans the line once, without regular expressions.
+         */
+        static Command parse(String line) {
+            String input = line.trim();
+            int nameEnd = 0;
+            while (nameEnd < input.length() && !isSeparator(input.charAt(nameEnd))) {
+                nameEnd++;
+            }
+            int argStart = nameEnd;
+            while (argStart < input.length() && isSeparator(input.charAt(argStart))) {
+                argStart++;
+            }
+            return new Command(input.substring(0, nameEnd).toLowerCase(),
+                    input.substring(argStart));
+        }
+
+        /**
+         * Return whether `c` separates a command name from its arguments.
+         */
+        private static boolean isSeparator(char c) {
+            return c == ' ' || c == '\t' || c == '\n' || c == '\u000b' || c == '\f' || c == '\r';
+        }
     }
 
     /**
-     * Perform the help command.
+     * Print a message about the command being invalid to `out`.
      */
-    public static void doHelp() {
-        System.out.println("help");
-        System.out.println("print [<advisor name>]: print every professor in the academic "
+    private static void invalidCommand(String cmd, String message, PrintWriter out) {
+        out.println("Invalid " + cmd + " command: " + message);
+        out.println("Enter the command \"help\" for information about that command.");
+    }
+
+    /**
+     * Perform the help command, printing to `out`.
+     */
+    public static void doHelp(PrintWriter out) {
+        out.println("help");
+        out.println("print [<advisor name>]: print every professor in the academic "
                 + "genealogy of the given professor (default: root) with their degree year");
-        System.out.println("contains <prof name> : whether this professor is in the PhD tree");
-        System.out.println("size [<advisor name>] : the number of academic descendants of the "
+        out.println("contains <prof name> : whether this professor is in the PhD tree");
+        out.println("size [<advisor name>] : the number of academic descendants of the "
                 + "given professor (default: root), including themselves");
-        System.out.println("advisor <advisee name> : the direct advisor of the given professor");
-        System.out.println("ancestor <prof 1>, <prof 2> : the common ancestor between the two "
+        out.println("advisor <advisee name> : the direct advisor of the given professor");
+        out.println("ancestor <prof 1>, <prof 2> : the common ancestor between the two "
                 + "given professors");
-        System.out.println("lineage <prof name> : the sequence of advisors from the root to the "
+        out.println("ancestors <file> : the common ancestor of each pair of professors in the "
+                + "given file, which has one pair per line separated by a comma");
+        out.println("isdescendant <prof 1>, <prof 2> : whether the second professor is in the "
+                + "academic genealogy of the first");
+        out.println("lineage <prof name> : the sequence of advisors from the root to the "
                 + "given professor");
-        System.out.println("exit : exit the program");
+        out.println("search <prefix> : the professors whose names start with the given "
+                + "prefix, in alphabetical order (at most " + SEARCH_LIMIT + ")");
+        out.println("cohort <prof name> <from year> <to year> [list] : the number of academic "
+                + "descendants of the given professor, including themselves, who earned their "
+                + "degree in the given range of years, optionally listed by year");
+        out.println("topmentors <k> [by advisees|descendants|depth] [in <prof name>] : the k "
+                + "professors with the most advisees, academic descendants or generations of "
+                + "descendants in the genealogy of the given professor (default: root)");
+        out.println("add <prof name>, <year>, <advisor name> : add a professor who earned "
+                + "their degree in the given year to the tree, as an advisee of the given advisor");
+        out.println("move <prof name>, <advisor name> : make the given professor, with their "
+                + "academic descendants, an advisee of the given advisor");
+        out.println("remove <prof name> : remove a professor without advisees from the tree");
+        out.println("save <file> : write a binary snapshot of the tree to the given file");
+        out.println("load <file> : replace the tree with the one in the given snapshot "
+                + "file");
+        out.println("stats [json] : metrics of the commands executed so far, of loading the "
+                + "tree and of the query cache, optionally as JSON");
+        out.println("exit : exit the program");
     }
 
     /**
-     * Perform the "print" command with arguments string `arg`.  Arguments must either be empty or
-     * contain a single professor's name (surrounding whitespace is ignored).
+     * Perform the "print" command with arguments string `arg`, printing to `out`.  Arguments must
+     * either be empty or contain a single professor's name (surrounding whitespace is ignored).
      */
-    public void doPrint(String arg) {
+    public void doPrint(String arg, PrintWriter out) {
         // Which subtree should be printed (by default, the whole tree)
         PhDTree subtree = professorTree;
 
@@ -291,61 +1010,58 @@ public class PhDApp {
             try {
                 subtree = professorTree.findTree(subtreeRoot);
             } catch (NotFound exc) {
-                System.out.println("This person does not exist in the tree.");
+                out.println("This person does not exist in the tree.");
                 return;
             }
         }
 
-        // Wrap `System.out` in a `PrintWriter` to satisfy `printProfessors()`, then flush the
-        // wrapper to ensure output gets written to the underlying stream.
-        PrintWriter pw = new PrintWriter(System.out);
-        subtree.printProfessors(pw);
-        pw.flush();
+        subtree.printProfessors(out);
     }
 
     /**
-     * Perform the "contains" command with arguments string `arg`.  Throws IllegalArgumentException
-     * if `arg` does not contain a single professor's name (surrounding whitespace is ignored).
+     * Perform the "contains" command with arguments string `arg`, printing to `out`.  Throws
+     * IllegalArgumentException if `arg` does not contain a single professor's name (surrounding
+     * whitespace is ignored).
      */
-    public void doContains(String arg) {
+    public void doContains(String arg, PrintWriter out) {
         // Extract professor's name from arguments and store in `targetName`.
         if (arg.isEmpty()) {
             throw new IllegalArgumentException("Missing argument");
         }
         String targetName = arg.trim();
         if (professorTree.contains(targetName)) {
-            System.out.println("This professor is contained in the tree.");
+            out.println("This professor is contained in the tree.");
         } else {
-            System.out.println("This professor is not contained in the tree.");
+            out.println("This professor is not contained in the tree.");
         }
 
     }
 
     /**
-     * Perform the "size" command with arguments string `arg`.  Arguments must either be empty or
-     * contain a single professor's name (surrounding whitespace is ignored).
+     * Perform the "size" command with arguments string `arg`, printing to `out`.  Arguments must
+     * either be empty or contain a single professor's name (surrounding whitespace is ignored).
      */
-    public void doSize(String arg) {
+    public void doSize(String arg, PrintWriter out) {
 
         if (arg.isEmpty()) {
-            System.out.println(
-                    "The number of nodes in this tree is: " + professorTree.size() + " .");
+            out.println("The number of nodes in this tree is: " + professorTree.size() + " .");
         } else {
             String targetName = arg.trim();
             try {
                 PhDTree thistree = professorTree.findTree(targetName);
-                System.out.println("The number of nodes in this tree is: " + thistree.size() + ".");
+                out.println("The number of nodes in this tree is: " + thistree.size() + ".");
             } catch (NotFound exc) {
-                System.out.println("This professor does not exist in the tree.");
+                out.println("This professor does not exist in the tree.");
             }
         }
     }
 
     /**
-     * Perform the "advisor" command with arguments string `arg`.  Throws IllegalArgumentException
-     * if `arg` does not contain a single professor's name (surrounding whitespace is ignored).
+     * Perform the "advisor" command with arguments string `arg`, printing to `out`.  Throws
+     * IllegalArgumentException if `arg` does not contain a single professor's name (surrounding
+     * whitespace is ignored).
      */
-    public void doAdvisor(String arg) {
+    public void doAdvisor(String arg, PrintWriter out) {
         if (arg.isEmpty()) {
             throw new IllegalArgumentException("Missing argument");
         } else {
@@ -353,60 +1069,508 @@ public class PhDApp {
                 String targetName = arg.trim();
                 //node
                 if (professorTree.prof().name().equals(targetName)) {
-                    System.out.println("This professor does not have an advisor in the tree.");
+                    out.println("This professor does not have an advisor in the tree.");
                 } else {
-                    System.out.println("The advisor of this advisee is: " +
-                            professorTree.findAdvisor(targetName).name() +
-                            " (" + professorTree.findAdvisor(targetName).phdYear() +
-                            ").");
+                    Professor advisor = queryCache.get("advisor", targetName, null,
+                            () -> professorTree.findAdvisor(targetName));
+                    out.println("The advisor of this advisee is: " + advisor.name() + " ("
+                            + advisor.phdYear() + ").");
                 }
             } catch (NotFound exc) {
-                System.out.println("This professor does not exist in the tree.");
+                out.println("This professor does not exist in the tree.");
             }
         }
     }
 
     /**
-     * Perform the "ancestor" command with arguments string `arg`.  Throws IllegalArgumentException
-     * if `arg` does not contain two professors' names separated by a comma (surrounding whitespace
-     * is ignored).
+     * Perform the "ancestor" command with arguments string `arg`, printing to `out`.  Throws
+     * IllegalArgumentException if `arg` does not contain two professors' names separated by a
+     * comma (surrounding whitespace is ignored).
      */
-    public void doAncestor(String arg) {
+    public void doAncestor(String arg, PrintWriter out) {
         // Extract both professors' names from arguments and store in `profNames`.
+        String[] profNames = arg.trim().split("\\s*,\\s*");
+        if (profNames.length != 2) {
+            throw new IllegalArgumentException("Missing arguments");
+        }
+        // The common ancestor does not depend on the order of the names, so cache both orders
+        // under one key.
+        boolean swap = profNames[0].compareTo(profNames[1]) > 0;
+        String firstName = profNames[swap ? 1 : 0];
+        String secondName = profNames[swap ? 0 : 1];
+        try {
+            Professor ancestor = queryCache.get("ancestor", firstName, secondName,
+                    () -> professorTree.commonAncestor(firstName, secondName));
+            out.println("The common ancestor of these professors is: " + ancestor + ".");
+        } catch (NotFound exc) {
+            out.println("These professors do not have a common ancestor in the tree.");
+        }
+    }
+
+    /**
+     * Perform the "ancestors" command with arguments string `arg`, printing to `out`.  Throws
+     * IllegalArgumentException if `arg` does not contain a file name (surrounding whitespace is
+     * ignored).  Each line of the file must contain two professors' names separated by a comma,
+     * as in the "ancestor" command; the answers are printed one per line in the same order.
+     */
+    public void doAncestors(String arg, PrintWriter out) {
+        if (arg.isEmpty()) {
+            throw new IllegalArgumentException("Missing argument");
+        }
+        String fileName = arg.trim();
+        // Malformed lines are kept as null names, so that their answers stay in order.
+        List<String> firstNames = new ArrayList<>();
+        List<String> secondNames = new ArrayList<>();
+        try (BufferedReader in = Files.newBufferedReader(Path.of(fileName),
+                StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                String[] profNames = line.trim().split("\\s*,\\s*");
+                boolean valid = profNames.length == 2;
+                firstNames.add(valid ? profNames[0] : null);
+                secondNames.add(valid ? profNames[1] : null);
+            }
+        } catch (IOException e) {
+            out.println("Could not read pairs file: " + e.getMessage());
+            return;
+        }
+        Professor[] ancestors = professorTree.commonAncestors(firstNames, secondNames);
+        for (int i = 0; i < ancestors.length; i++) {
+            if (firstNames.get(i) == null) {
+                out.println("Line " + (i + 1) + " does not contain two names separated by a "
+                        + "comma.");
+            } else if (ancestors[i] == null) {
+                out.println(firstNames.get(i) + ", " + secondNames.get(i)
+                        + ": no common ancestor in the tree");
+            } else {
+                out.println(firstNames.get(i) + ", " + secondNames.get(i) + ": "
+                        + ancestors[i]);
+            }
+        }
+    }
+
+    /**
+     * Perform the "isdescendant" command with arguments string `arg`, printing to `out`.  Throws
+     * IllegalArgumentException if `arg` does not contain two professors' names separated by a
+     * comma (surrounding whitespace is ignored).
+     */
+    public void doIsDescendant(String arg, PrintWriter out) {
         String[] profNames = arg.trim().split("\\s*,\\s*");
         if (profNames.length != 2) {
             throw new IllegalArgumentException("Missing arguments");
         }
         try {
-            System.out.println("The common ancestor of these professors is: " +
-                    professorTree.commonAncestor(profNames[0], profNames[1]).toString() + ".");
+            if (professorTree.isDescendant(profNames[0], profNames[1])) {
+                out.println("The second professor is in the academic genealogy of the first.");
+            } else {
+                out.println("The second professor is not in the academic genealogy of the "
+                        + "first.");
+            }
         } catch (NotFound exc) {
-            System.out.println("These professors do not have a common ancestor in the tree.");
+            out.println("These professors are not both in the tree.");
         }
     }
 
     /**
-     * Perform the "lineage" command with arguments string `arg`.  Throws IllegalArgumentException
-     * if `arg` does not contain a single professor's name (surrounding whitespace is ignored).
+     * Perform the "lineage" command with arguments string `arg`, printing to `out`.  Throws
+     * IllegalArgumentException if `arg` does not contain a single professor's name (surrounding
+     * whitespace is ignored).
      */
-    public void doLineage(String arg) {
+    public void doLineage(String arg, PrintWriter out) {
         if (arg.isEmpty()) {
             throw new IllegalArgumentException("Missing argument");
         }
         try {
             String targetName = arg.trim();
-            List<Professor> lineage = professorTree.findAcademicLineage(targetName);
-            String output = "";
-            String item;
-            for (int i = 0; i < lineage.size() - 1; ++i) {
-                item = lineage.get(i).name() + " (" + lineage.get(i).phdYear() + ")";
-                output += (item + "--");
-            }
-            output += lineage.get(lineage.size() - 1).name() + " (" +
-                    lineage.get(lineage.size() - 1).phdYear() + ")";
-            System.out.println("The lineage is: " + output + ".");
+            List<Professor> lineage = queryCache.get("lineage", targetName, null,
+                    () -> Collections.unmodifiableList(
+                            professorTree.findAcademicLineage(targetName)));
+            // Stream the lineage rather than concatenating Strings.
+            out.write("The lineage is: ");
+            GenealogyFormat.appendLineage(out, lineage);
+            out.println(".");
+        } catch (NotFound exc) {
+            out.println("This professor does not exist in the tree.");
+        } catch (IOException e) {
+            // A PrintWriter does not throw
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * The most professors listed by the "search" command.
+     */
+    private static final int SEARCH_LIMIT = 20;
+
+    /**
+     * Perform the "search" command with arguments string `arg`, printing to `out`.  Throws
+     * IllegalArgumentException if `arg` does not contain a prefix of a professor's name
+     * (surrounding whitespace is ignored).
+     */
+    public void doSearch(String arg, PrintWriter out) {
+        if (arg.isEmpty()) {
+            throw new IllegalArgumentException("Missing argument");
+        }
+        // Ask for one more professor than is listed to tell whether the list is complete.
+        List<Professor> matches = professorTree.findByPrefix(arg.trim(), SEARCH_LIMIT + 1);
+        if (matches.isEmpty()) {
+            out.println("No professor's name starts with this prefix.");
+            return;
+        }
+        try {
+            if (matches.size() > SEARCH_LIMIT) {
+                out.println("The first " + SEARCH_LIMIT + " professors with this prefix are:");
+                matches = matches.subList(0, SEARCH_LIMIT);
+            } else {
+                out.println("The professors with this prefix are:");
+            }
+            for (Professor prof : matches) {
+                GenealogyFormat.appendListing(out, prof.name(), prof.phdYear());
+            }
+        } catch (IOException e) {
+            // A PrintWriter does not throw
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * The arguments of the "cohort" command: a professor's name, two years and optionally "list".
+     */
+    private static final Pattern COHORT_ARGUMENTS =
+            Pattern.compile("(.*\\S)\\s+(-?\\d{1,9})\\s+(-?\\d{1,9})(\\s+list)?");
+
+    /**
+     * Perform the "cohort" command with arguments string `arg`, printing to `out`.  Throws
+     * IllegalArgumentException if `arg` does not contain a professor's name followed by two years
+     * and optionally the word "list" (surrounding whitespace is ignored).
+     */
+    public void doCohort(String arg, PrintWriter out) {
+        Matcher args = COHORT_ARGUMENTS.matcher(arg.trim());
+        if (!args.matches()) {
+            throw new IllegalArgumentException("Missing arguments");
+        }
+        int fromYear = Integer.parseInt(args.group(2));
+        int toYear = Integer.parseInt(args.group(3));
+        PhDTree subtree;
+        try {
+            subtree = professorTree.findTree(args.group(1));
+        } catch (NotFound exc) {
+            out.println("This professor does not exist in the tree.");
+            return;
+        }
+        if (args.group(4) == null) {
+            out.println("The number of professors in this cohort is: "
+                    + subtree.countCohort(fromYear, toYear) + ".");
+            return;
+        }
+        List<Professor> cohort = subtree.findCohort(fromYear, toYear);
+        out.println("The number of professors in this cohort is: " + cohort.size() + ".");
+        try {
+            for (Professor prof : cohort) {
+                GenealogyFormat.appendListing(out, prof.name(), prof.phdYear());
+            }
+        } catch (IOException e) {
+            // A PrintWriter does not throw
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * The arguments of the "topmentors" command: a count, optionally "by" and a ranking, then
+     * optionally "in" and a professor's name.
+     */
+    private static final Pattern TOP_MENTORS_ARGUMENTS =
+            Pattern.compile("(\\d{1,9})(?:\\s+by\\s+(\\w+))?(?:\\s+in\\s+(.+))?");
+
+    /**
+     * Perform the "topmentors" command with arguments string `arg`, printing to `out`.  Throws
+     * IllegalArgumentException if `arg` does not contain a count, optionally followed by "by" and
+     * a ranking and then by "in" and a professor's name (surrounding whitespace is ignored).
+     */
+    public void doTopMentors(String arg, PrintWriter out) {
+        Matcher args = TOP_MENTORS_ARGUMENTS.matcher(arg.trim());
+        if (!args.matches()) {
+            throw new IllegalArgumentException("Missing arguments");
+        }
+        int k = Integer.parseInt(args.group(1));
+        PhDTree.MentorRanking ranking = PhDTree.MentorRanking.ADVISEES;
+        if (args.group(2) != null) {
+            try {
+                ranking = PhDTree.MentorRanking.valueOf(args.group(2).toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unknown ranking");
+            }
+        }
+        PhDTree subtree = professorTree;
+        if (args.group(3) != null) {
+            try {
+                subtree = professorTree.findTree(args.group(3));
+            } catch (NotFound exc) {
+                out.println("This professor does not exist in the tree.");
+                return;
+            }
+        }
+        List<PhDTree> mentors = subtree.topMentors(k, ranking);
+        if (mentors.isEmpty()) {
+            out.println("No professor in this tree has advisees.");
+            return;
+        }
+        out.println("The top mentors by " + ranking.name().toLowerCase(Locale.ROOT) + " are:");
+        try {
+            for (PhDTree mentor : mentors) {
+                GenealogyFormat.appendProfessor(out, mentor.prof());
+                out.append(": ");
+                GenealogyFormat.appendInt(out, ranking.valueOf(mentor));
+                out.append('\n');
+            }
+        } catch (IOException e) {
+            // A PrintWriter does not throw
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Perform the "stats" command with arguments string `arg`, printing to `out`.  Throws
+     * IllegalArgumentException if `arg` is neither empty nor "json" (surrounding whitespace is
+     * ignored).
+     */
+    public void doStats(String arg, PrintWriter out) {
+        String format = arg.trim();
+        if (format.isEmpty()) {
+            Metrics.printText(out);
+            out.println(queryCache.summary());
+        } else if (format.equalsIgnoreCase("json")) {
+            StringBuilder json = new StringBuilder("{");
+            Metrics.appendJsonFields(json);
+            json.append(",\"query_cache\":");
+            queryCache.appendJson(json);
+            json.append('}');
+            out.println(json);
+        } else {
+            throw new IllegalArgumentException("Unknown format");
+        }
+    }
+
+    /**
+     * Perform the "save" command with arguments string `arg`, printing to `out`.  Throws
+     * IllegalArgumentException if `arg` does not contain a file name (surrounding whitespace is
+     * ignored).
+     */
+    public void doSave(String arg, PrintWriter out) {
+        if (arg.isEmpty()) {
+            throw new IllegalArgumentException("Missing argument");
+        }
+        String fileName = arg.trim();
+        try {
+            // A snapshot includes every logged change, so it may replace the log's snapshot.
+            long lsn = (changeLog != null) ? changeLog.lastLsn() : 0;
+            PhDSnapshot.save(professorTree, lsn, Path.of(fileName));
+            out.println("Saved a snapshot of the tree to " + fileName + ".");
+        } catch (IOException e) {
+            out.println("Could not save snapshot: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Perform the "load" command with arguments string `arg`, printing to `out`.  Throws
+     * IllegalArgumentException if `arg` does not contain a file name (surrounding whitespace is
+     * ignored).
+     */
+    public void doLoad(String arg, PrintWriter out) {
+        if (arg.isEmpty()) {
+            throw new IllegalArgumentException("Missing argument");
+        }
+        String fileName = arg.trim();
+        try {
+            professorTree = PhDSnapshot.load(Path.of(fileName));
+            queryCache.clear();
+            if (follower != null) {
+                follower.professorsAdded();
+            }
+            out.println("Loaded a tree of " + professorTree.size() + " professors from "
+                    + fileName + ".");
+        } catch (IOException e) {
+            out.println("Could not read snapshot: " + e.getMessage());
+            return;
+        } catch (InputFormatException e) {
+            out.println("Invalid snapshot: " + e.getMessage());
+            return;
+        }
+        if (changeLog != null) {
+            // The logged changes were made to the old tree, so the new tree replaces them.
+            try {
+                compactLog();
+            } catch (IOException e) {
+                out.println("Could not compact the change log: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Perform the "add" command with arguments string `arg`, printing to `out`.  Throws
+     * IllegalArgumentException if `arg` does not contain a professor's name, their degree year and
+     * their advisor's name, separated by commas (surrounding whitespace is ignored).
+     */
+    public void doAdd(String arg, PrintWriter out) {
+        String[] fields = arg.trim().split("\\s*,\\s*");
+        if (fields.length != 3 || fields[0].isEmpty() || fields[2].isEmpty()) {
+            throw new IllegalArgumentException("Missing arguments");
+        }
+        int year;
+        try {
+            year = Integer.parseInt(fields[1]);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Advisee year must be integer");
+        }
+        if (professorTree.contains(fields[0])) {
+            out.println("This professor is already in the tree.");
+        } else if (!professorTree.contains(fields[2])) {
+            out.println("This advisor does not exist in the tree.");
+        } else if (logChange(WriteAheadLog.ADD, fields[0], year, fields[2], out)) {
+            try {
+                Professor prof = applyChange(WriteAheadLog.ADD, fields[0], year, fields[2]);
+                out.println("Added " + prof + " as an advisee of " + fields[2] + ".");
+            } catch (NotFound e) {
+                // The advisor was found above
+                throw new AssertionError(e);
+            }
+        }
+    }
+
+    /**
+     * Perform the "move" command with arguments string `arg`, printing to `out`.  Throws
+     * IllegalArgumentException if `arg` does not contain two professors' names separated by a
+     * comma (surrounding whitespace is ignored).
+     */
+    public void doMove(String arg, PrintWriter out) {
+        String[] profNames = arg.trim().split("\\s*,\\s*");
+        if (profNames.length != 2) {
+            throw new IllegalArgumentException("Missing arguments");
+        }
+        try {
+            if (!professorTree.contains(profNames[1])) {
+                // Checked before anything is logged, since a logged change must apply.
+                throw new NotFound();
+            } else if (professorTree.prof().name().equals(profNames[0])) {
+                out.println("The root of the tree cannot be moved.");
+            } else if (professorTree.findAdvisor(profNames[0]).name().equals(profNames[1])) {
+                out.println("This professor is already an advisee of this advisor.");
+            } else if (professorTree.findTree(profNames[0]).contains(profNames[1])) {
+                out.println("A professor cannot be moved into their own academic genealogy.");
+            } else if (logChange(WriteAheadLog.MOVE, profNames[0], 0, profNames[1], out)) {
+                Professor prof = applyChange(WriteAheadLog.MOVE, profNames[0], 0, profNames[1]);
+                out.println("Moved " + prof + " to be an advisee of " + profNames[1] + ".");
+            }
         } catch (NotFound exc) {
-            System.out.println("This professor does not exist in the tree.");
+            out.println("These professors are not both in the tree.");
+        }
+    }
+
+    /**
+     * Perform the "remove" command with arguments string `arg`, printing to `out`.  Throws
+     * IllegalArgumentException if `arg` does not contain a single professor's name (surrounding
+     * whitespace is ignored).
+     */
+    public void doRemove(String arg, PrintWriter out) {
+        if (arg.isEmpty()) {
+            throw new IllegalArgumentException("Missing argument");
+        }
+        String targetName = arg.trim();
+        try {
+            if (professorTree.prof().name().equals(targetName)) {
+                out.println("The root of the tree cannot be removed.");
+            } else if (professorTree.findTree(targetName).numAdvisees() > 0) {
+                out.println("Only a professor without advisees can be removed.");
+            } else if (logChange(WriteAheadLog.REMOVE, targetName, 0, "", out)) {
+                Professor prof = applyChange(WriteAheadLog.REMOVE, targetName, 0, "");
+                out.println("Removed " + prof + " from the tree.");
+            }
+        } catch (NotFound exc) {
+            out.println("This professor does not exist in the tree.");
+        }
+    }
+
+    /**
+     * Append the change of type `type` (see `WriteAheadLog`) to the professor named `name` to the
+     * write-ahead log, if there is one, wait until it is synced to disk, and start compacting the
+     * log if it has grown too long.  Return false, after printing a message to `out`, if it could
+     * not be logged, in which case it must not be made.  Since the change is durable before it is
+     * made and reported, a crash cannot lose a change the user was told succeeded.  Requires
+     * holding a write lock on `treeLock`, so commands that change the tree wait for their syncs
+     * one at a time.
+     */
+    private boolean logChange(byte type, String name, int year, String advisor, PrintWriter out) {
+        if (changeLog == null) {
+            return true;
+        }
+        try {
+            changeLog.sync(changeLog.append(type, name, year, advisor));
+        } catch (IOException e) {
+            out.println("Could not write to the change log: " + e.getMessage());
+            return false;
+        }
+        if (changeLog.length() >= COMPACTION_LENGTH && compacting.compareAndSet(false, true)) {
+            // The compaction waits for this command to release its write lock, so the snapshot
+            // includes the change.
+            compactor.execute(() -> {
+                treeLock.readLock().lock();
+                try {
+                    compactLog();
+                } catch (IOException e) {
+                    System.err.println("Could not compact " + logFileName + ": "
+                            + e.getMessage());
+                } finally {
+                    treeLock.readLock().unlock();
+                    compacting.set(false);
+                }
+            });
+        }
+        return true;
+    }
+
+    /**
+     * Write a snapshot of the tree, which includes every change in the write-ahead log, next to
+     * the log, then empty the log.  Requires holding `treeLock`.
+     */
+    private void compactLog() throws IOException {
+        long lsn = changeLog.sync();
+        PhDSnapshot.save(professorTree, lsn, logSnapshotPath());
+        changeLog.reset();
+    }
+
+    /**
+     * Make the change of type `type` (see `WriteAheadLog`) to the professor named `name` in the
+     * tree, and return that professor: add them with degree year `year` as an advisee of the
+     * professor named `advisor`, make them an advisee of the professor named `advisor`, or remove
+     * them.  Throws `NotFound` or `IllegalArgumentException` if the change does not apply to the
+     * tree.
+     */
+    private Professor applyChange(byte type, String name, int year, String advisor)
+            throws NotFound {
+        switch (type) {
+            case WriteAheadLog.ADD:
+                if (professorTree.contains(name)) {
+                    throw new IllegalArgumentException("Duplicate Advisees");
+                }
+                Professor prof = new Professor(name, year);
+                professorTree.insert(advisor, prof);
+                queryCache.inserted(name);
+                if (follower != null) {
+                    follower.professorsAdded();
+                }
+                return prof;
+            case WriteAheadLog.MOVE:
+                PhDTree moved = professorTree.findTree(name);
+                professorTree.move(name, advisor);
+                queryCache.invalidate(moved::contains);
+                return moved.prof();
+            case WriteAheadLog.REMOVE:
+                PhDTree removed = professorTree.findTree(name);
+                professorTree.remove(name);
+                queryCache.invalidate(name::equals);
+                return removed.prof();
+            default:
+                throw new IllegalArgumentException("Unknown change type " + type);
         }
     }
 }
@@ -0,0 +1,348 @@
+package cs2110;
+
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Saves and loads academic genealogies in a compact binary snapshot format, so that an application
+ * can start without parsing and validating a CSV file.  A snapshot starts with the log sequence
+ * number of the last change (see `WriteAheadLog`) it includes.  It then holds the professors
+ * sorted by name, with each name front-coded against the previous one (the length of the shared
+ * UTF-8 prefix followed by the remaining bytes), then every professor's PhD year as the
+ * zigzag-encoded difference from the previous professor's, then the index of every professor's
+ * advisor.  All integers are written as unsigned LEB128 varints.
+ * <p>
+ * Snapshots are trusted: loading one does not check that it describes a valid tree.
+ */
+public final class PhDSnapshot {
+
+    /**
+     * The bytes every snapshot starts with.
+     */
+    private static final byte[] MAGIC = {'P', 'h', 'D', 'S'};
+
+    /**
+     * The version of the format written by this class.  Version 1 had no log sequence number.
+     */
+    private static final int VERSION = 2;
+
+    /**
+     * The size of the buffer used when reading a snapshot.
+     */
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    /**
+     * This class only has static methods.
+     */
+    private PhDSnapshot() {
+    }
+
+    /**
+     * Write a snapshot of `tree` to the file `file`, replacing it if it exists.  The file is only
+     * replaced once the new snapshot has been completely written.
+     */
+    public static void save(PhDTree tree, Path file) throws IOException {
+        save(tree, 0, file);
+    }
+
+    /**
+     * Write a snapshot of `tree`, which includes the logged changes up to log sequence number
+     * `lsn`, to the file `file`, as `save(PhDTree, Path)` does.
+     */
+    static void save(PhDTree tree, long lsn, Path file) throws IOException {
+        // List the professors in preorder through the Euler-tour index, with advisor indices.
+        EulerIndex index = tree.eulerIndex();
+        int from = tree.eulerNumber();
+        int n = tree.size();
+        String[] names = new String[n];
+        int[] years = new int[n];
+        int[] parents = new int[n];
+        for (int i = 0; i < n; i++) {
+            Professor prof = index.node(from + i).prof();
+            names[i] = prof.name();
+            years[i] = prof.phdYear();
+            parents[i] = (i == 0) ? -1 : index.parent(from + i) - from;
+        }
+
+        // Renumber the professors in name order, which front-coding works best on.
+        String[] sorted = names.clone();
+        Arrays.parallelSort(sorted);
+        int[] rank = new int[n];
+        int[] byRank = new int[n];
+        for (int i = 0; i < n; i++) {
+            rank[i] = Arrays.binarySearch(sorted, names[i]);
+            byRank[rank[i]] = i;
+        }
+
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+                    OutputStream out = new BufferedOutputStream(
+                            Channels.newOutputStream(channel), BUFFER_SIZE)) {
+                out.write(MAGIC);
+                writeVarint(out, VERSION);
+                writeVarlong(out, lsn);
+                writeVarint(out, n);
+                writeVarint(out, rank[0]);
+
+                byte[] previous = new byte[0];
+                for (String name : sorted) {
+                    byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+                    int shared = 0;
+                    int max = Math.min(previous.length, bytes.length);
+                    while (shared < max && previous[shared] == bytes[shared]) {
+                        shared++;
+                    }
+                    writeVarint(out, shared);
+                    writeVarint(out, bytes.length - shared);
+                    out.write(bytes, shared, bytes.length - shared);
+                    previous = bytes;
+                }
+
+                int previousYear = 0;
+                for (int r = 0; r < n; r++) {
+                    int year = years[byRank[r]];
+                    int delta = year - previousYear;
+                    writeVarint(out, (delta << 1) ^ (delta >> 31));
+                    previousYear = year;
+                }
+
+                // The root is written with advisor index 0, all others with their advisor's
+                // index plus 1.
+                for (int r = 0; r < n; r++) {
+                    int parent = parents[byRank[r]];
+                    writeVarint(out, (parent < 0) ? 0 : rank[parent] + 1);
+                }
+                out.flush();
+                channel.force(true);
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Return the genealogy stored in the snapshot file `file`.  Throws `InputFormatException` if
+     * the file is not a snapshot in a supported version of the format.
+     */
+    public static PhDTree load(Path file) throws IOException, InputFormatException {
+        long start = Metrics.now();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            Input in = new Input(channel);
+            readHeader(in);
+            int n = in.readVarint();
+            int root = in.readVarint();
+            if (n <= 0 || root < 0 || root >= n) {
+                throw new InputFormatException("Invalid snapshot header");
+            }
+
+            String[] names = new String[n];
+            byte[] current = new byte[64];
+            int length = 0;
+            for (int r = 0; r < n; r++) {
+                int shared = in.readVarint();
+                int suffix = in.readVarint();
+                length = shared + suffix;
+                if (length > current.length) {
+                    current = Arrays.copyOf(current, Math.max(length, 2 * current.length));
+                }
+                in.readFully(current, shared, suffix);
+                names[r] = new String(current, 0, length, StandardCharsets.UTF_8);
+            }
+
+            int[] years = new int[n];
+            int year = 0;
+            for (int r = 0; r < n; r++) {
+                int zigzag = in.readVarint();
+                year += (zigzag >>> 1) ^ -(zigzag & 1);
+                years[r] = year;
+            }
+
+            // PhDTree.assemble() expects the root first, so exchange the root with professor 0.
+            Professor[] profs = new Professor[n];
+            int[] parents = new int[n];
+            for (int r = 0; r < n; r++) {
+                int slot = swapped(r, root);
+                profs[slot] = new Professor(names[r], years[r]);
+                int parent = in.readVarint() - 1;
+                parents[slot] = (parent < 0) ? -1 : swapped(parent, root);
+            }
+            Metrics.loadPhase("snapshot", start);
+            return PhDTree.assemble(profs, parents);
+        }
+    }
+
+    /**
+     * Return the log sequence number of the last change included in the snapshot file `file`, or 0
+     * if it is in a version of the format without one.  Throws `InputFormatException` if the file
+     * is not a snapshot in a supported version of the format.
+     */
+    static long lsn(Path file) throws IOException, InputFormatException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return readHeader(new Input(channel));
+        }
+    }
+
+    /**
+     * Read the magic bytes, version and (from version 2) log sequence number at the start of a
+     * snapshot from `in`, and return the log sequence number, or 0 if there is none.  Throws
+     * `InputFormatException` if they are not those of a supported version of the format.
+     */
+    private static long readHeader(Input in) throws IOException, InputFormatException {
+        for (byte b : MAGIC) {
+            if (in.readByte() != b) {
+                throw new InputFormatException("Not a genealogy snapshot");
+            }
+        }
+        int version = in.readVarint();
+        if (version == 1) {
+            return 0;
+        } else if (version != VERSION) {
+            throw new InputFormatException("Unsupported snapshot version " + version);
+        }
+        return in.readVarlong();
+    }
+
+    /**
+     * Return the position of professor `r` once professor `root` and professor 0 have been
+     * exchanged.
+     */
+    private static int swapped(int r, int root) {
+        if (r == root) {
+            return 0;
+        } else if (r == 0) {
+            return root;
+        }
+        return r;
+    }
+
+    /**
+     * Write `value` to `out` as an unsigned LEB128 varint.
+     */
+    private static void writeVarint(OutputStream out, int value) throws IOException {
+        while ((value & ~0x7f) != 0) {
+            out.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    /**
+     * Write `value` to `out` as an unsigned LEB128 varint.
+     */
+    private static void writeVarlong(OutputStream out, long value) throws IOException {
+        while ((value & ~0x7fL) != 0) {
+            out.write((int) (value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    /**
+     * Reads a snapshot file through a large buffer refilled with bulk reads.
+     */
+    private static final class Input {
+
+        /**
+         * The file being read.
+         */
+        private final FileChannel channel;
+
+        /**
+         * Bytes read from the file but not consumed yet, between its position and limit.
+         */
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+        /**
+         * Create an input reading `channel` from its current position.
+         */
+        Input(FileChannel channel) {
+            this.channel = channel;
+            buffer.flip();
+        }
+
+        /**
+         * Make at least one unconsumed byte available, or throw `EOFException`.
+         */
+        private void fill() throws IOException {
+            buffer.compact();
+            int n;
+            do {
+                n = channel.read(buffer);
+            } while (n == 0);
+            buffer.flip();
+            if (n < 0 && !buffer.hasRemaining()) {
+                throw new EOFException("Truncated snapshot");
+            }
+        }
+
+        /**
+         * Read one byte.
+         */
+        byte readByte() throws IOException {
+            if (!buffer.hasRemaining()) {
+                fill();
+            }
+            return buffer.get();
+        }
+
+        /**
+         * Read an unsigned LEB128 varint.
+         */
+        int readVarint() throws IOException {
+            int value = 0;
+            for (int shift = 0; shift < 35; shift += 7) {
+                byte b = readByte();
+                value |= (b & 0x7f) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+            }
+            throw new IOException("Malformed varint in snapshot");
+        }
+
+        /**
+         * Read an unsigned LEB128 varint of up to 64 bits.
+         */
+        long readVarlong() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 70; shift += 7) {
+                byte b = readByte();
+                value |= (long) (b & 0x7f) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+            }
+            throw new IOException("Malformed varint in snapshot");
+        }
+
+        /**
+         * Read exactly `length` bytes into `dest` starting at index `offset`.
+         */
+        void readFully(byte[] dest, int offset, int length) throws IOException {
+            while (length > 0) {
+                if (!buffer.hasRemaining()) {
+                    fill();
+                }
+                int n = Math.min(length, buffer.remaining());
+                buffer.get(dest, offset, n);
+                offset += n;
+                length -= n;
+            }
+        }
+    }
+}
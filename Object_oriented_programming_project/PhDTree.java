@@ -1,16 +1,20 @@
 package cs2110;
 
+import java.io.IOException;
 import java.io.PrintWriter;
-import java.io.StringWriter;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.Iterator;
-import java.util.LinkedList;
-import java.util.ListIterator;
+import java.util.Map;
+import java.util.NavigableSet;
 import java.util.Set;
 import java.util.HashSet;
 import java.util.List;
-import java.util.SortedSet;
 import java.util.TreeSet;
 
 /**
@@ -34,31 +38,185 @@ public class PhDTree {
      * an advisee of the professor at this node.  The PhDTree nodes reachable via `advisees` form a
      * tree.
      */
-    private SortedSet<PhDTree> advisees;
+    private NavigableSet<PhDTree> advisees;
+
+    /**
+     * The node of the advisor of the professor at the root of this PhDTree, or null if this node is
+     * the root of its whole genealogy.  `parent.advisees` contains this node.
+     */
+    private PhDTree parent;
+
+    /**
+     * Bookkeeping shared by every node reachable from the root of this node's whole genealogy
+     * (including this node).
+     */
+    private final Registry registry;
+
+    /**
+     * The number of professors in this PhDTree.  Equal to 1 plus the sum of `size` over
+     * `advisees`.
+     */
+    private int size;
+
+    /**
+     * The number of professors along the longest path from the root of this PhDTree to a leaf.
+     * Equal to 1 plus the maximum `height` over `advisees`, or 1 if there are none.
+     */
+    private int height;
+
+    /**
+     * The number of professors in this PhDTree with no advisees.  Equal to the sum of `leaves` over
+     * `advisees`, or 1 if there are none.
+     */
+    private int leaves;
+
+    /**
+     * The preorder number of this node in `registry.euler`.  Only meaningful while that index is
+     * not null.
+     */
+    private int preorder;
+
+    /**
+     * Bookkeeping shared by all nodes of one genealogy tree.  There is exactly one Registry per
+     * genealogy, created along with its root node.
+     */
+    private static final class Registry {
+
+        /**
+         * Maps the name of every professor in the genealogy to the node holding that professor.
+         */
+        final Map<String, PhDTree> nodes;
+
+        /**
+         * The root node of the genealogy.
+         */
+        PhDTree root;
+
+        /**
+         * The Euler-tour index of the genealogy, or null if the genealogy has changed since the
+         * index was last built.  Built on demand by `eulerIndex()`, by one thread at a time while
+         * holding this registry's lock.  Volatile so that concurrent readers of an unchanging
+         * genealogy see the preorder numbers stamped by the thread that built it.
+         */
+        volatile EulerIndex euler;
+
+        /**
+         * The index of every professor in the genealogy by name, or null if it has not been built
+         * yet.  Built on demand by `nameIndex()` like `euler`, then kept up to date by
+         * `insert()` and `remove()`.
+         */
+        volatile NameIndex names;
+
+        /**
+         * Create an empty registry for a genealogy expected to hold about `expectedSize`
+         * professors.
+         */
+        Registry(int expectedSize) {
+            nodes = new HashMap<>(Math.max(16, (int) (expectedSize / 0.75f) + 1));
+        }
+    }
+
+    /**
+     * The ways of ranking mentors by `topMentors()`.
+     */
+    public enum MentorRanking {
+        /**
+         * By number of direct advisees.
+         */
+        ADVISEES {
+            @Override
+            public int valueOf(PhDTree tree) {
+                return tree.numAdvisees();
+            }
+        },
+
+        /**
+         * By number of academic descendants, not counting the mentor themselves.
+         */
+        DESCENDANTS {
+            @Override
+            public int valueOf(PhDTree tree) {
+                return tree.size() - 1;
+            }
+        },
+
+        /**
+         * By the number of generations of their genealogy, counting the mentor themselves (see
+         * `maxDepth()`).
+         */
+        DEPTH {
+            @Override
+            public int valueOf(PhDTree tree) {
+                return tree.maxDepth();
+            }
+        };
+
+        /**
+         * Return the value by which this ranking ranks the professor at the root of `tree`.
+         */
+        public abstract int valueOf(PhDTree tree);
+    }
+
+    /**
+     * Orders nodes by their professors.  The elements of each node's set of advisees will be
+     * iterated in this order.  Since `PhDTree` is not `Comparable` itself, an anonymous function is
+     * used to tell the comparator to look at its professor instead.
+     */
+    private static final Comparator<PhDTree> BY_PROFESSOR =
+            Comparator.comparing(node -> node.professor);
+
+    /**
+     * Whether assertions are enabled for this class.  The class invariant is only checked when they
+     * are, since checking it requires a traversal of the whole tree.
+     */
+    private static final boolean CHECK_INV = PhDTree.class.desiredAssertionStatus();
 
     /**
      * Assert that the class invariant is satisfied.  Specifically, asserts that all professor names
-     * in the tree are distinct and that no node is reachable from more than one parent.
+     * in the tree are distinct, that no node is reachable from more than one parent, and that every
+     * node is registered under its professor's name and linked to its parent.
      */
     private void assertInv() {
+        if (!CHECK_INV) {
+            return;
+        }
         Set<String> seenProfs = new HashSet<>();
         Set<PhDTree> seenNodes = new HashSet<>();
         assertInvTraverse(seenProfs, seenNodes);
     }
 
     /**
-     * Recursive helper method for classInv. Traverses the tree from this node, adding all
-     * Professors and nodes seen to the respective "seen" sets. Things added must not already be in
-     * the set, as that would imply that either the values in the tree are not distinct or that the
-     * data structure is not a tree.
+     * Helper method for assertInv. Traverses the tree from this node, adding all Professors and
+     * nodes seen to the respective "seen" sets. Things added must not already be in the set, as that
+     * would imply that either the values in the tree are not distinct or that the data structure is
+     * not a tree.  Uses an explicit stack rather than recursion, so arbitrarily deep trees can be
+     * checked.
      */
     private void assertInvTraverse(Set<String> seenProfs, Set<PhDTree> seenNodes) {
-        assert !seenNodes.contains(this) : "node " + this + " is not unique";
-        assert !seenProfs.contains(professor.name()) : "prof " + professor + " is not unique";
-        seenProfs.add(professor.name());
-        seenNodes.add(this);
-        for (PhDTree advisee : advisees) {
-            advisee.assertInvTraverse(seenProfs, seenNodes);
+        ArrayDeque<PhDTree> stack = new ArrayDeque<>();
+        stack.push(this);
+        while (!stack.isEmpty()) {
+            PhDTree node = stack.pop();
+            assert !seenNodes.contains(node) : "node " + node + " is not unique";
+            assert !seenProfs.contains(node.professor.name())
+                    : "prof " + node.professor + " is not unique";
+            assert registry.nodes.get(node.professor.name()) == node
+                    : "prof " + node.professor + " not registered";
+            seenProfs.add(node.professor.name());
+            seenNodes.add(node);
+            for (PhDTree advisee : node.advisees) {
+                assert advisee.parent == node : "node " + advisee + " has the wrong parent";
+                assert advisee.registry == registry : "node " + advisee + " is in another genealogy";
+                stack.push(advisee);
+            }
+            // Each node's aggregates only need to agree with its advisees' cached values, since
+            // those are checked in turn.
+            int oldSize = node.size;
+            int oldHeight = node.height;
+            int oldLeaves = node.leaves;
+            node.updateAggregates();
+            assert node.size == oldSize && node.height == oldHeight && node.leaves == oldLeaves
+                    : "stale aggregates at " + node.professor;
         }
     }
 
@@ -66,13 +224,94 @@ public class PhDTree {
      * Create a new PhDTree with `prof` as the root professor and no advisees.
      */
     public PhDTree(Professor prof) throws IllegalArgumentException {
+        this(prof, null, new Registry(1));
+        registry.root = this;
+        assertInv();
+    }
+
+    /**
+     * Create a new node for `prof` with no advisees, whose advisor's node is `parent` (null for the
+     * root of a genealogy), and register it in `registry`.  Does not add the node to
+     * `parent.advisees`.  Requires no professor named `prof.name()` is registered yet.
+     */
+    private PhDTree(Professor prof, PhDTree parent, Registry registry) {
         assert prof != null;
+        assert !registry.nodes.containsKey(prof.name());
         this.professor = prof;
-        // The elements of this set will be iterated in order according to the ordering of the
-        // nodes' professors.  Since `PhDTree` is not `Comparable` itself, an anonymous function is
-        // used to tell the comparator to look at its professor instead.
-        advisees = new TreeSet<>(Comparator.comparing(node -> node.professor));
-        assertInv();
+        this.parent = parent;
+        this.registry = registry;
+        // Most nodes are leaves, so they share an empty set until their first advisee is added.
+        advisees = Collections.emptyNavigableSet();
+        size = 1;
+        height = 1;
+        leaves = 1;
+        registry.nodes.put(prof.name(), this);
+    }
+
+    /**
+     * Return a new genealogy containing the professors `profs`, rooted at `profs[0]`, in which the
+     * advisor of `profs[i]` is `profs[parents[i]]` for every `i > 0`.  Requires `profs` is not
+     * empty, all names in `profs` are distinct, and following `parents` from any index leads to 0.
+     * Takes time linear in the number of professors (plus the cost of ordering each advisor's
+     * advisees), unlike a sequence of `insert()` calls.
+     */
+    static PhDTree assemble(Professor[] profs, int[] parents) {
+        assert profs.length > 0 && parents.length == profs.length;
+        long start = Metrics.now();
+        Registry registry = new Registry(profs.length);
+        PhDTree[] nodes = new PhDTree[profs.length];
+        for (int i = 0; i < profs.length; i++) {
+            nodes[i] = new PhDTree(profs[i], null, registry);
+        }
+        registry.root = nodes[0];
+        for (int i = 1; i < profs.length; i++) {
+            PhDTree advisor = nodes[parents[i]];
+            nodes[i].parent = advisor;
+            advisor.addAdvisee(nodes[i]);
+        }
+
+        // Compute the cached aggregates bottom-up: list the nodes in breadth-first order, so that
+        // every node is listed before its advisees, then visit that list backwards.
+        List<PhDTree> order = new ArrayList<>(profs.length);
+        order.add(nodes[0]);
+        for (int i = 0; i < order.size(); i++) {
+            order.addAll(order.get(i).advisees);
+        }
+        for (int i = order.size() - 1; i >= 0; i--) {
+            order.get(i).updateAggregates();
+        }
+        nodes[0].assertInv();
+        Metrics.loadPhase("assemble", start);
+        return nodes[0];
+    }
+
+    /**
+     * Add `advisee` to this node's advisees, giving this node its own set of advisees first if it
+     * had none.  Does not update any cached aggregates.
+     */
+    private void addAdvisee(PhDTree advisee) {
+        if (advisees.isEmpty()) {
+            advisees = new TreeSet<>(BY_PROFESSOR);
+        }
+        advisees.add(advisee);
+    }
+
+    /**
+     * Recompute `size`, `height` and `leaves` for this node from the values cached at its
+     * advisees.
+     */
+    private void updateAggregates() {
+        int newSize = 1;
+        int newHeight = 0;
+        int newLeaves = 0;
+        for (PhDTree advisee : advisees) {
+            newSize += advisee.size;
+            newHeight = Math.max(newHeight, advisee.height);
+            newLeaves += advisee.leaves;
+        }
+        size = newSize;
+        height = newHeight + 1;
+        leaves = advisees.isEmpty() ? 1 : newLeaves;
     }
 
     /**
@@ -93,17 +332,7 @@ public class PhDTree {
      * Return the number of professors in this tree with no advisees of their own.
      */
     public int numLeaves() {
-        // Base case: this node is a leaf
-        if (numAdvisees() == 0) {
-            return 1;
-        }
-
-        // This is a counting method
-        int totalLeaves = 0;
-        for (PhDTree advisee : advisees) {
-            totalLeaves += advisee.numLeaves();
-        }
-        return totalLeaves;
+        return leaves;
     }
 
     /**
@@ -111,38 +340,72 @@ public class PhDTree {
      * Otherwise, throws `NotFound`.
      */
     public Professor findProlificMentor(int minAdvisees) throws NotFound {
-        // This is a searching method
-
-        // Base case: this node's professor qualifies
-        if (numAdvisees() >= minAdvisees) {
-            return professor;
+        PhDTree mentor = prolificMentor(minAdvisees);
+        if (mentor == null) {
+            throw new NotFound();
         }
+        return mentor.professor;
+    }
 
-        // Recursive case: search each child
-        for (PhDTree advisee : advisees) {
-            try {
-                return advisee.findProlificMentor(minAdvisees);
-            } catch (NotFound exc) {
-                // Continue (search the next child)
+    /**
+     * Return the first node in this PhDTree, in preorder, whose professor has at least
+     * `minAdvisees` advisees, or null if there is none.  Failure is reported by the return value
+     * rather than an exception because most subtrees searched do not contain a match.
+     */
+    private PhDTree prolificMentor(int minAdvisees) {
+        // This is a searching method, with an explicit stack of the subtrees still to search
+        ArrayDeque<PhDTree> stack = new ArrayDeque<>();
+        stack.push(this);
+        int visited = 0;
+        while (!stack.isEmpty()) {
+            PhDTree node = stack.pop();
+            visited++;
+            if (node.numAdvisees() >= minAdvisees) {
+                Metrics.visited(visited);
+                return node;
+            }
+            // Push advisees in decreasing order so that they are searched in increasing order.
+            for (Iterator<PhDTree> it = node.advisees.descendingIterator(); it.hasNext(); ) {
+                stack.push(it.next());
             }
         }
+        Metrics.visited(visited);
+        return null;
+    }
 
-        // Not found under any child; throw an exception ourselves.
-        throw new NotFound();
+    /**
+     * Return the subtrees of the `k` professors in this PhDTree who rank highest by `ranking`, in
+     * decreasing order of rank, or of all of them if fewer than `k` have advisees.  Professors with
+     * equal values are listed in preorder.  Answered from a segment tree over the Euler-tour index,
+     * taking O(k log n) time for n professors in the genealogy, but every `insert()`, `move()` or
+     * `remove()` discards that index.  The first call after any change therefore renumbers the
+     * whole genealogy and rebuilds the segment tree for `ranking`, taking O(n) time, so while the
+     * genealogy keeps changing between calls, every call takes O(n) time.  Requires `k` is not
+     * negative.
+     */
+    public List<PhDTree> topMentors(int k, MentorRanking ranking) {
+        assert k >= 0;
+        EulerIndex index = eulerIndex();
+        List<PhDTree> mentors = new ArrayList<>(Math.min(k, 16));
+        index.rankingTree(ranking).forEachDescending(preorder, preorder + size, number -> {
+            PhDTree node = index.node(number);
+            // Every professor with advisees outranks every professor without, so once one
+            // without is reached none are left.
+            if (mentors.size() == k || node.advisees.isEmpty()) {
+                return false;
+            }
+            mentors.add(node);
+            return true;
+        });
+        Metrics.visited(mentors.size());
+        return mentors;
     }
 
     /**
      * Return the number of professors in this PhDTree.
      */
     public int size() {
-        if (numAdvisees() == 0) {
-            return 1;
-        }
-        int num = 0;
-        for (PhDTree advisee : advisees) {
-            num += advisee.size();
-        }
-        return num+1;
+        return size;
     }
 
     /**
@@ -151,14 +414,44 @@ public class PhDTree {
      * advisees, its depth is 1.
      */
     public int maxDepth() {
-        if (numAdvisees() == 0) {
-            return 1;
+        return height;
+    }
+
+    /**
+     * Return the node of the professor named `targetName` if that professor is in this PhDTree,
+     * otherwise null.  Takes time proportional to the depth of the professor's node.
+     */
+    private PhDTree lookup(String targetName) {
+        PhDTree node = registry.nodes.get(targetName);
+        Metrics.visited(1);
+        return (node != null && node.isDescendantOf(this)) ? node : null;
+    }
+
+    /**
+     * Return whether this node is `ancestor` or lies in the subtree rooted at `ancestor`.  Requires
+     * both nodes belong to the same genealogy.
+     */
+    private boolean isDescendantOf(PhDTree ancestor) {
+        if (ancestor.parent == null) {
+            // Every node of a genealogy descends from its root.
+            return true;
         }
-        int max = 0;
-        for (PhDTree advisee : advisees) {
-            max = Math.max(advisee.maxDepth(), max) ;
+        if (registry.euler != null) {
+            // While the index is current, the descendants of `ancestor` are the nodes numbered
+            // from its number up to (but excluding) its number plus its size.
+            Metrics.visited(1);
+            return preorder >= ancestor.preorder && preorder - ancestor.preorder < ancestor.size;
         }
-        return max+1;
+        int visited = 0;
+        for (PhDTree node = this; node != null; node = node.parent) {
+            visited++;
+            if (node == ancestor) {
+                Metrics.visited(visited);
+                return true;
+            }
+        }
+        Metrics.visited(visited);
+        return false;
     }
 
     /**
@@ -166,24 +459,11 @@ public class PhDTree {
      * this PhDTree. Throws `NotFound` if `target` is not in this PhDTree.
      */
     public PhDTree findTree(String targetName) throws NotFound {
-
-        // base case: found
-        if (professor.name().equals(targetName)) {
-            assertInv();
-            return this;
-        }
-
-        // recursive case: search each
-        for (PhDTree advisee : advisees) {
-            try {
-                PhDTree target = advisee.findTree(targetName);
-                assertInv();
-                return target;
-            } catch (NotFound exc) {
-                // continue
-            }
+        PhDTree target = lookup(targetName);
+        if (target == null) {
+            throw new NotFound();
         }
-        throw new NotFound();
+        return target;
     }
 
     /**
@@ -191,12 +471,7 @@ public class PhDTree {
      * root's advising descendants).
      */
     public boolean contains(String targetName) {
-        try {
-            findTree(targetName);
-            return true;
-        } catch (NotFound exc) {
-            return false;
-        }
+        return lookup(targetName) != null;
     }
 
     /**
@@ -207,35 +482,152 @@ public class PhDTree {
     public void insert(String advisorName, Professor newAdvisee) throws NotFound {
 
         PhDTree tree = findTree(advisorName);
-        assert (!contains(newAdvisee.toString()));
-        tree.advisees.add(new PhDTree(newAdvisee));
+        // Names are registered genealogy-wide, so they must be distinct beyond this subtree too.
+        assert !registry.nodes.containsKey(newAdvisee.name());
+        boolean wasLeaf = tree.advisees.isEmpty();
+        tree.addAdvisee(new PhDTree(newAdvisee, tree, registry));
+
+        // Only the aggregates cached along the path from `tree` up to the root can change.  The new
+        // leaf replaces `tree` as a leaf if `tree` had no advisees, and adds one otherwise.
+        for (PhDTree node = tree; node != null; node = node.parent) {
+            node.size++;
+            if (!wasLeaf) {
+                node.leaves++;
+            }
+        }
+        int newHeight = 2;
+        for (PhDTree node = tree; node != null && node.height < newHeight; node = node.parent) {
+            node.height = newHeight;
+            newHeight++;
+        }
+        registry.euler = null;
+        NameIndex names = registry.names;
+        if (names != null) {
+            names.add(newAdvisee);
+        }
         assertInv();
     }
 
+    /**
+     * Move the professor named `targetName`, along with their academic descendants, so that their
+     * advisor is the professor named `advisorName`.  Throws `NotFound` if either professor is not
+     * in this PhDTree.  Throws `IllegalArgumentException` if `targetName` is the root of the
+     * genealogy, or if `advisorName` is `targetName` or one of their descendants.  Takes time
+     * proportional to the depths of both professors, plus the number of advisees of the ancestors
+     * of the old advisor whose height changes.
+     */
+    public void move(String targetName, String advisorName) throws NotFound {
+        PhDTree target = findTree(targetName);
+        PhDTree advisor = findTree(advisorName);
+        if (target.parent == null) {
+            throw new IllegalArgumentException("The root cannot be moved");
+        }
+        if (advisor.isDescendantOf(target)) {
+            throw new IllegalArgumentException("A professor cannot be moved under a descendant");
+        }
+        PhDTree oldAdvisor = target.parent;
+        if (oldAdvisor == advisor) {
+            return;
+        }
+        boolean wasLeaf = advisor.advisees.isEmpty();
+        detach(target);
+        advisor.addAdvisee(target);
+        target.parent = advisor;
+
+        // As in `insert()`, only the aggregates along the paths from the old and new advisors up
+        // to the root can change.  The changes along each path add up where the paths meet.
+        boolean becameLeaf = oldAdvisor.advisees.isEmpty();
+        for (PhDTree node = oldAdvisor; node != null; node = node.parent) {
+            node.size -= target.size;
+            node.leaves -= becameLeaf ? target.leaves - 1 : target.leaves;
+        }
+        for (PhDTree node = advisor; node != null; node = node.parent) {
+            node.size += target.size;
+            node.leaves += wasLeaf ? target.leaves - 1 : target.leaves;
+        }
+        updateHeights(oldAdvisor);
+        updateHeights(advisor);
+        registry.euler = null;
+        assertInv();
+    }
 
     /**
-     * Return the immediate advisor of the professor named `targetAdviseeName`, or throw `NotFound`
-     * if `targetAdviseeName` is not an advising descendant of the professor at the root of this
-     * PhDTree.
+     * Remove the professor named `targetName` from this PhDTree.  Throws `NotFound` if they are
+     * not in this PhDTree.  Throws `IllegalArgumentException` if they are the root of this PhDTree
+     * or have advisees.  Takes time proportional to the professor's depth, plus the number of
+     * advisees of the ancestors whose height changes.
      */
-    public Professor findAdvisor(String targetAdviseeName) throws NotFound {
-        // base case: found
-        for (PhDTree advisee : advisees) {
-            if (advisee.prof().name().equals(targetAdviseeName)) {
-                return professor;
+    public void remove(String targetName) throws NotFound {
+        PhDTree target = findTree(targetName);
+        if (target == this || target.parent == null) {
+            throw new IllegalArgumentException("The root cannot be removed");
+        }
+        if (!target.advisees.isEmpty()) {
+            throw new IllegalArgumentException("Only a professor without advisees can be removed");
+        }
+        PhDTree advisor = target.parent;
+        detach(target);
+        registry.nodes.remove(targetName);
+
+        // The advisor replaces the removed leaf as a leaf if it has no advisees left.
+        boolean becameLeaf = advisor.advisees.isEmpty();
+        for (PhDTree node = advisor; node != null; node = node.parent) {
+            node.size--;
+            if (!becameLeaf) {
+                node.leaves--;
             }
         }
+        updateHeights(advisor);
+        registry.euler = null;
+        NameIndex names = registry.names;
+        if (names != null) {
+            names.remove(targetName);
+        }
+        assertInv();
+    }
 
-        // recursive case: search each
-        for (PhDTree advisee : advisees) {
-            try {
-                return advisee.findAdvisor(targetAdviseeName);
-            } catch (NotFound exc) {
-                // continue
+    /**
+     * Remove `node` from its advisor's advisees, returning the advisor to the shared empty set if
+     * it has none left.  Does not update any cached aggregates, or `node.parent`.
+     */
+    private static void detach(PhDTree node) {
+        PhDTree advisor = node.parent;
+        advisor.advisees.remove(node);
+        if (advisor.advisees.isEmpty()) {
+            advisor.advisees = Collections.emptyNavigableSet();
+        }
+    }
+
+    /**
+     * Recompute the cached height of `node` and its ancestors from their advisees' heights, after
+     * the advisees of `node` changed, stopping at the first whose height is unchanged.
+     */
+    private static void updateHeights(PhDTree node) {
+        for (; node != null; node = node.parent) {
+            int newHeight = 0;
+            for (PhDTree advisee : node.advisees) {
+                newHeight = Math.max(newHeight, advisee.height);
+            }
+            newHeight++;
+            if (newHeight == node.height) {
+                return;
             }
+            node.height = newHeight;
         }
+    }
+
 
-        throw new NotFound();
+    /**
+     * Return the immediate advisor of the professor named `targetAdviseeName`, or throw `NotFound`
+     * if `targetAdviseeName` is not an advising descendant of the professor at the root of this
+     * PhDTree.
+     */
+    public Professor findAdvisor(String targetAdviseeName) throws NotFound {
+        PhDTree target = lookup(targetAdviseeName);
+        if (target == null || target == this) {
+            throw new NotFound();
+        }
+        return target.parent.professor;
     }
 
     /**
@@ -245,48 +637,260 @@ public class PhDTree {
      * Throws `NotFound` if there is no such path.
      */
     public List<Professor> findAcademicLineage(String targetName) throws NotFound {
+        PhDTree target = findTree(targetName);
 
-        // base case: found
-        if (professor.name().equals(targetName)) {
-            List<Professor> prof = new LinkedList<>();
-            prof.add(professor);
-            return prof;
-        }
-
-        // recursive case: search each
-        for (PhDTree advisee : advisees) {
-            try {
-                List<Professor> lineage = advisee.findAcademicLineage(targetName);
-                lineage.add(0, professor);
-                return lineage;
-            } catch (NotFound exc) {
-                // continue
-            }
+        // Walk up the parent links, then put the path in root-first order
+        List<Professor> lineage = new ArrayList<>();
+        for (PhDTree node = target; node != this; node = node.parent) {
+            lineage.add(node.professor);
         }
-        throw new NotFound();
+        lineage.add(professor);
+        Collections.reverse(lineage);
+        Metrics.visited(lineage.size());
+        return lineage;
+    }
 
+    /**
+     * Return whether the professor named `descendantName` is in the academic genealogy of the
+     * professor named `ancestorName` (which includes that professor themselves).  Throws `NotFound`
+     * if either professor is not in this PhDTree.  The first call after the genealogy changes
+     * numbers the whole genealogy in O(n) time; later calls take constant time.
+     */
+    public boolean isDescendant(String ancestorName, String descendantName) throws NotFound {
+        PhDTree ancestor = findTree(ancestorName);
+        PhDTree descendant = findTree(descendantName);
+        eulerIndex();
+        return descendant.preorder >= ancestor.preorder
+                && descendant.preorder - ancestor.preorder < ancestor.size;
     }
 
     /**
      * Return the professor at the root of the smallest subtree of this PhDTree that contains
      * professors named `prof1Name` and `prof2Name`, if such a subtree exists. Otherwise, throw
-     * `NotFound`.
+     * `NotFound`.  The first call after the genealogy changes builds an index of the whole
+     * genealogy in O(n log n) time; later calls take constant time.
      */
     public Professor commonAncestor(String prof1Name, String prof2Name) throws NotFound {
+        PhDTree prof1 = lookup(prof1Name);
+        PhDTree prof2 = lookup(prof2Name);
+        if (prof1 == null || prof2 == null) {
+            throw new NotFound();
+        }
+        // Both professors descend from this node, so their lowest common ancestor in the whole
+        // genealogy lies within this PhDTree.
+        EulerIndex index = eulerIndex();
+        return index.node(index.lca(prof1.preorder, prof2.preorder)).professor;
+    }
+
+    /**
+     * Return the number of professors in this PhDTree who earned their PhD between `fromYear` and
+     * `toYear` (inclusive).  The first call after the genealogy changes builds an index of the
+     * whole genealogy in O(n log n) time; later calls take O(log^2 n) time.
+     */
+    public int countCohort(int fromYear, int toYear) {
+        EulerIndex index = eulerIndex();
+        return index.yearTree().count(preorder, preorder + size, fromYear, toYear);
+    }
+
+    /**
+     * Return the professors in this PhDTree who earned their PhD between `fromYear` and `toYear`
+     * (inclusive), in increasing order.  Uses the same index as `countCohort()`, and takes
+     * O((k + 1) log^2 n) time for k professors once it is built.
+     */
+    public List<Professor> findCohort(int fromYear, int toYear) {
+        EulerIndex index = eulerIndex();
+        List<Professor> cohort = new ArrayList<>();
+        index.yearTree().forEach(preorder, preorder + size, fromYear, toYear,
+                number -> cohort.add(index.node(number).professor));
+        Collections.sort(cohort);
+        Metrics.visited(cohort.size());
+        return cohort;
+    }
 
-        // Used arraylist for better performance and efficiency
-        ArrayList<Professor> route1 = new ArrayList<>(findAcademicLineage(prof1Name));
-        ArrayList<Professor> route2 = new ArrayList<>(findAcademicLineage(prof2Name));
+    /**
+     * Return the common ancestors of many pairs of professors at once: element `i` of the result is
+     * `commonAncestor(firstNames.get(i), secondNames.get(i))`, or null if either name is null or
+     * either professor is not in this PhDTree.  Requires both lists have the same size.  Answers
+     * every pair with Tarjan's offline lowest-common-ancestor algorithm, in one walk of this
+     * PhDTree in the preorder of the Euler-tour index, taking nearly O(n + q) time and O(n + q)
+     * extra space for n professors and q pairs.  If the genealogy has changed since the index was
+     * last built, the whole genealogy is numbered first, which takes another O(N) time and space
+     * for its N professors.
+     */
+    public Professor[] commonAncestors(List<String> firstNames, List<String> secondNames) {
+        assert firstNames.size() == secondNames.size();
+        EulerIndex index = eulerIndex();
+        int q = firstNames.size();
+        int lo = preorder;
+
+        // Nodes are identified by their preorder number minus `lo`.  Pair `i` has ends `2i` and
+        // `2i + 1`; `ends[e]` is the node of end `e`, and the ends at each node form a linked list
+        // starting at `firstEnd[node]` and continuing through `nextEnd`.
+        int[] ends = new int[2 * q];
+        int[] nextEnd = new int[2 * q];
+        int[] firstEnd = new int[size];
+        Arrays.fill(firstEnd, -1);
+        for (int i = 0; i < q; i++) {
+            String first = firstNames.get(i);
+            String second = secondNames.get(i);
+            PhDTree a = (first == null) ? null : lookup(first);
+            PhDTree b = (second == null) ? null : lookup(second);
+            if (a == null || b == null) {
+                continue;
+            }
+            ends[2 * i] = a.preorder - lo;
+            ends[2 * i + 1] = b.preorder - lo;
+            for (int e = 2 * i; e <= 2 * i + 1; e++) {
+                nextEnd[e] = firstEnd[ends[e]];
+                firstEnd[ends[e]] = e;
+            }
+        }
 
-        // start from the last index so that we only find the most recent ancestor
-        for (int i = route1.size() - 1 ; i >= 0; --i){
-            for (int j = route2.size() - 1 ; j >= 0; --j) {
-                if (route2.get(j).equals(route1.get(i))) {
-                    return route2.get(j);
+        // Walk the nodes in preorder, keeping the path from this node to the current one on a
+        // stack.  A node is finished when it leaves the path, and its set is then merged into its
+        // parent's.  While a node is on the path it represents its set, so the representative of a
+        // finished node's set is the ancestor at which the path to it leaves the current path: the
+        // lowest common ancestor of the two.
+        Professor[] ancestors = new Professor[q];
+        int[] sets = new int[size];
+        boolean[] finished = new boolean[size];
+        int[] path = new int[height];
+        int top = 0;
+        for (int v = 0; v <= size; v++) {
+            // Finish the nodes on the path that are not ancestors of `v` (all of them at the end).
+            int parent = (v == 0 || v == size) ? -1 : index.parent(v + lo) - lo;
+            while (top > 0 && path[top - 1] != parent) {
+                int u = path[--top];
+                finished[u] = true;
+                for (int e = firstEnd[u]; e >= 0; e = nextEnd[e]) {
+                    int w = ends[e ^ 1];
+                    if (finished[w]) {
+                        ancestors[e >> 1] = index.node(find(sets, w) + lo).professor;
+                    }
+                }
+                if (top > 0) {
+                    sets[u] = path[top - 1];
                 }
             }
+            if (v < size) {
+                sets[v] = v;
+                path[top++] = v;
+            }
         }
-        throw new NotFound();
+        Metrics.visited(size);
+        return ancestors;
+    }
+
+    /**
+     * Return the representative of the set containing `x` in the union-find forest `sets`, where
+     * `sets[x]` is the parent of `x` or `x` itself if it is a representative, halving the path to
+     * it along the way.
+     */
+    private static int find(int[] sets, int x) {
+        while (sets[x] != x) {
+            sets[x] = sets[sets[x]];
+            x = sets[x];
+        }
+        return x;
+    }
+
+    /**
+     * Return the professors in this PhDTree whose names start with `prefix`, in increasing order of
+     * name, but no more than `limit` of them.  Requires `limit` is not negative.  The first call
+     * builds an index of the whole genealogy in O(n log n) time; later calls take O(log n + k)
+     * time for k results when this PhDTree is the whole genealogy.  Otherwise, the professors with
+     * the prefix outside this PhDTree are also visited and skipped.
+     */
+    public List<Professor> findByPrefix(String prefix, int limit) {
+        assert limit >= 0;
+        if (parent == null) {
+            return nameIndex().search(prefix, limit, prof -> true);
+        }
+        return nameIndex().search(prefix, limit,
+                prof -> registry.nodes.get(prof.name()).isDescendantOf(this));
+    }
+
+    /**
+     * Return the index of this node's whole genealogy by name, building it first if necessary.
+     */
+    private NameIndex nameIndex() {
+        NameIndex index = registry.names;
+        if (index == null) {
+            synchronized (registry) {
+                index = registry.names;
+                if (index == null) {
+                    List<Professor> profs = new ArrayList<>(registry.nodes.size());
+                    for (PhDTree node : registry.nodes.values()) {
+                        profs.add(node.professor);
+                    }
+                    index = new NameIndex(profs);
+                    registry.names = index;
+                }
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Return the Euler-tour index of this node's whole genealogy, building it first if the
+     * genealogy has changed since it was last built.
+     */
+    EulerIndex eulerIndex() {
+        EulerIndex index = registry.euler;
+        if (index == null) {
+            // Concurrent readers wait for one of them to build the index rather than each
+            // building their own.
+            synchronized (registry) {
+                index = registry.euler;
+                if (index == null) {
+                    index = buildEulerIndex(registry.root);
+                    registry.euler = index;
+                }
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Return this node's preorder number in `eulerIndex()`.  The nodes of this PhDTree are the
+     * nodes numbered from that number up to (but excluding) that number plus `size()`.
+     */
+    int eulerNumber() {
+        eulerIndex();
+        return preorder;
+    }
+
+    /**
+     * Return a new Euler-tour index of the genealogy rooted at `root`, numbering every node in
+     * preorder (advisees in increasing order) along the way.
+     */
+    private static EulerIndex buildEulerIndex(PhDTree root) {
+        int n = root.size;
+        PhDTree[] order = new PhDTree[n];
+        int[] parents = new int[n];
+        int[] depths = new int[n];
+        ArrayDeque<PhDTree> stack = new ArrayDeque<>();
+        stack.push(root);
+        int next = 0;
+        while (!stack.isEmpty()) {
+            PhDTree node = stack.pop();
+            node.preorder = next;
+            order[next] = node;
+            if (node.parent == null) {
+                parents[next] = -1;
+                depths[next] = 0;
+            } else {
+                parents[next] = node.parent.preorder;
+                depths[next] = depths[node.parent.preorder] + 1;
+            }
+            next++;
+            // Push advisees in decreasing order so that they are numbered in increasing order.
+            for (Iterator<PhDTree> it = node.advisees.descendingIterator(); it.hasNext(); ) {
+                stack.push(it.next());
+            }
+        }
+        assert next == n;
+        return new EulerIndex(order, parents, depths);
     }
 
     /**
@@ -318,22 +922,49 @@ public class PhDTree {
      */
     @Override
     public String toString() {
+        StringBuilder s = new StringBuilder();
+        try {
+            writeTo(s);
+        } catch (IOException e) {
+            // Appending to a StringBuilder does not throw.
+            throw new UncheckedIOException(e);
+        }
+        return s.toString();
+    }
+
+    /**
+     * Write the String representation of this PhDTree described by `toString()` to `out`, a piece
+     * at a time, without building the whole representation (or that of any subtree) in memory.
+     */
+    public void writeTo(Appendable out) throws IOException {
+        Metrics.visited(size);
+        out.append(professor.name());
         if (advisees.isEmpty()) {
-            return professor.name();
+            return;
         }
-        StringBuilder s = new StringBuilder();
-        s.append(professor.name())
-                .append("[");
-        boolean first = true;
-        for (PhDTree advisee : advisees) {
-            if (!first) {
-                s.append(", ");
+
+        // Each iterator on the stack walks the advisees of a node whose "[" has been written but
+        // whose "]" has not.  The iterator on top always has another advisee to write.
+        ArrayDeque<Iterator<PhDTree>> stack = new ArrayDeque<>();
+        out.append('[');
+        stack.push(advisees.iterator());
+        while (!stack.isEmpty()) {
+            PhDTree advisee = stack.peek().next();
+            out.append(advisee.professor.name());
+            if (!advisee.advisees.isEmpty()) {
+                out.append('[');
+                stack.push(advisee.advisees.iterator());
+                continue;
+            }
+            // `advisee` is complete; close every list it completes in turn.
+            while (!stack.isEmpty() && !stack.peek().hasNext()) {
+                stack.pop();
+                out.append(']');
+            }
+            if (!stack.isEmpty()) {
+                out.append(", ");
             }
-            first = false;
-            s.append(advisee);
         }
-        s.append("]");
-        return s.toString();
     }
 
     /**
@@ -352,11 +983,29 @@ public class PhDTree {
      * </pre>
      */
     public void printProfessors(PrintWriter out) {
-        out.write(professor.name() + " - " + professor.phdYear());
-        out.write('\n');
-        for (PhDTree advisee : advisees) {
-            advisee.printProfessors(out);
+        try {
+            writeProfessors(out);
+        } catch (IOException e) {
+            // A PrintWriter does not throw; it records errors for `checkError()` instead.
+            throw new UncheckedIOException(e);
         }
+    }
 
+    /**
+     * Write each professor in this tree to `out` in the format and order of `printProfessors()`,
+     * without building an intermediate String for any professor.
+     */
+    public void writeProfessors(Appendable out) throws IOException {
+        Metrics.visited(size);
+        ArrayDeque<PhDTree> stack = new ArrayDeque<>();
+        stack.push(this);
+        while (!stack.isEmpty()) {
+            PhDTree node = stack.pop();
+            GenealogyFormat.appendListing(out, node.professor.name(), node.professor.phdYear());
+            // Push advisees in decreasing order so that they are printed in increasing order.
+            for (Iterator<PhDTree> it = node.advisees.descendingIterator(); it.hasNext(); ) {
+                stack.push(it.next());
+            }
+        }
     }
 }
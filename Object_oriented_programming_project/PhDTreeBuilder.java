@@ -0,0 +1,234 @@
+package cs2110;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntConsumer;
+
+/**
+ * Collects the rows of an academic genealogy (advisee, PhD year, advisor) and links them into a
+ * PhDTree in a single pass once all rows have been added.  The first row added is the root of the
+ * genealogy (its advisor is ignored); the remaining rows may be added in any order, so an advisee
+ * may be added before their advisor.
+ */
+public class PhDTreeBuilder {
+
+    /**
+     * The professors added so far, in the order they were added.  Element 0 is the root.
+     */
+    private final List<Professor> profs = new ArrayList<>();
+
+    /**
+     * The advisor name given with each professor in `profs`, at the same index.
+     */
+    private final List<String> advisorNames = new ArrayList<>();
+
+    /**
+     * Maps the name of each professor in `profs` to their index in `profs`.  A ConcurrentHashMap
+     * once rows have been added by `addAll()`.
+     */
+    private Map<String, Integer> indices = new HashMap<>();
+
+    /**
+     * The index of each added professor's advisor, with -1 for the root, if computed by `addAll()`
+     * since the last row was added, otherwise null.
+     */
+    private int[] linkedParents;
+
+    /**
+     * Whether the advisor of some professor was not found when computing `linkedParents`.
+     */
+    private boolean advisorMissing;
+
+    /**
+     * Add a row stating that the professor named `advisee` earned their PhD in year `year` while
+     * advised by the professor named `advisor`.  Throws `UnsupportedOperationException` if a
+     * professor named `advisee` was already added.
+     */
+    public void add(String advisee, int year, String advisor) {
+        add(new Professor(advisee, year), advisor);
+    }
+
+    /**
+     * Add a row stating that `advisee` earned their PhD while advised by the professor named
+     * `advisor`.  Throws `UnsupportedOperationException` if a professor with the same name was
+     * already added.
+     */
+    void add(Professor advisee, String advisor) {
+        if (indices.putIfAbsent(advisee.name(), profs.size()) != null) {
+            throw new UnsupportedOperationException("Duplicate Advisees");
+        }
+        profs.add(advisee);
+        advisorNames.add(advisor);
+        linkedParents = null;
+    }
+
+    /**
+     * Add rows stating that each `advisees[i]` earned their PhD while advised by the professor
+     * named `advisors[i]`, in order, as `add()` would, but index and link them on `pool`, in
+     * parallel.  Rows whose advisee shares a name with an earlier row are added too; returns the
+     * index (among all rows added) of the first such row, or -1 if there is none.  Requires at
+     * least one row was added before.
+     */
+    int addAll(Professor[] advisees, String[] advisors, ForkJoinPool pool) {
+        long start = Metrics.now();
+        int from = profs.size();
+        int n = from + advisees.length;
+        profs.addAll(Arrays.asList(advisees));
+        advisorNames.addAll(Arrays.asList(advisors));
+        if (!(indices instanceof ConcurrentHashMap)) {
+            Map<String, Integer> added = indices;
+            indices = new ConcurrentHashMap<>(n);
+            indices.putAll(added);
+        }
+
+        // Index every new row, keeping the earliest row with each name, as `add()` would have.
+        // Then a row is a duplicate exactly when its name is indexed to an earlier row.
+        Map<String, Integer> names = indices;
+        parallelFor(pool, from, n, i -> names.merge(advisees[i - from].name(), i, Math::min));
+        AtomicInteger firstDuplicate = new AtomicInteger(Integer.MAX_VALUE);
+        AtomicBoolean missing = new AtomicBoolean();
+        int[] parents = new int[n];
+        parents[0] = -1;
+        parallelFor(pool, 1, n, i -> {
+            if (i >= from && names.get(advisees[i - from].name()) != i) {
+                firstDuplicate.accumulateAndGet(i, Math::min);
+            }
+            Integer parent = names.get(advisorNames.get(i));
+            if (parent == null) {
+                missing.set(true);
+            } else {
+                parents[i] = parent;
+            }
+        });
+        linkedParents = parents;
+        advisorMissing = missing.get();
+        Metrics.loadPhase("link", start);
+        return (firstDuplicate.get() == Integer.MAX_VALUE) ? -1 : firstDuplicate.get();
+    }
+
+    /**
+     * Run `action` on every int from `from` to `to - 1`, in about four tasks per thread of `pool`,
+     * and return once it has run on all of them.
+     */
+    private static void parallelFor(ForkJoinPool pool, int from, int to, IntConsumer action) {
+        int step = Math.max(1 << 14, (to - from) / (4 * pool.getParallelism()) + 1);
+        List<ForkJoinTask<?>> tasks = new ArrayList<>();
+        for (int lo = from; lo < to; lo = (int) Math.min(to, (long) lo + step)) {
+            int first = lo;
+            int last = (int) Math.min(to, (long) lo + step);
+            tasks.add(pool.submit(() -> {
+                for (int i = first; i < last; i++) {
+                    action.accept(i);
+                }
+            }));
+        }
+        for (ForkJoinTask<?> task : tasks) {
+            task.join();
+        }
+    }
+
+    /**
+     * Return whether a professor named `name` has been added.
+     */
+    public boolean contains(String name) {
+        return indices.containsKey(name);
+    }
+
+    /**
+     * Return the index of the first row added whose advisee is named `name`, or -1 if there is
+     * none.
+     */
+    int indexOf(String name) {
+        Integer index = indices.get(name);
+        return (index == null) ? -1 : index;
+    }
+
+    /**
+     * Return the number of rows added so far.
+     */
+    public int size() {
+        return profs.size();
+    }
+
+    /**
+     * Return the genealogy formed by the rows added so far.  Throws `UnsupportedOperationException`
+     * if no rows were added or if some professor's advisor was never added (or the advisors of some
+     * professors form a cycle, so that they are not descendants of the root).
+     */
+    public PhDTree build() {
+        int[] parents = link();
+        return PhDTree.assemble(profs.toArray(new Professor[0]), parents);
+    }
+
+    /**
+     * Return the genealogy formed by the rows added so far in the compact, read-only
+     * representation.  Throws `UnsupportedOperationException` under the same conditions as
+     * `build()`.
+     */
+    public CompactPhDTree buildCompact() {
+        int[] parents = link();
+        return CompactPhDTree.assemble(profs.toArray(new Professor[0]), parents);
+    }
+
+    /**
+     * Return the index of each added professor's advisor, with -1 for the root.  Throws
+     * `UnsupportedOperationException` if the rows do not form a tree rooted at the first row.
+     */
+    private int[] link() {
+        int n = profs.size();
+        if (n == 0) {
+            throw new UnsupportedOperationException("Unexpected number of entries");
+        }
+        long start = Metrics.now();
+        int[] parents = linkedParents;
+        if (parents != null) {
+            if (advisorMissing) {
+                throw new UnsupportedOperationException("Advisor not found");
+            }
+        } else {
+            parents = new int[n];
+            parents[0] = -1;
+            for (int i = 1; i < n; i++) {
+                Integer parent = indices.get(advisorNames.get(i));
+                if (parent == null) {
+                    throw new UnsupportedOperationException("Advisor not found");
+                }
+                parents[i] = parent;
+            }
+            Metrics.loadPhase("link", start);
+        }
+
+        // Every chain of advisors must end at the root.  Walk up from each professor until reaching
+        // one already known to descend from the root; reaching a professor on the current walk
+        // instead means the chain is a cycle.
+        start = Metrics.now();
+        final byte unknown = 0;
+        final byte onWalk = 1;
+        final byte rooted = 2;
+        byte[] state = new byte[n];
+        state[0] = rooted;
+        for (int i = 1; i < n; i++) {
+            int j = i;
+            while (state[j] == unknown) {
+                state[j] = onWalk;
+                j = parents[j];
+            }
+            if (state[j] == onWalk) {
+                throw new UnsupportedOperationException("Advisor not found");
+            }
+            for (j = i; state[j] == onWalk; j = parents[j]) {
+                state[j] = rooted;
+            }
+        }
+        Metrics.loadPhase("validate", start);
+        return parents;
+    }
+}
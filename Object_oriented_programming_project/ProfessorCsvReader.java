@@ -0,0 +1,672 @@
+package cs2110;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Consumer;
+
+/**
+ * Reads an academic genealogy in CSV format from a file by scanning its bytes through a memory
+ * mapping.  Accepts the same files as `PhDApp.csvToTree(Reader)` and reports errors the same way,
+ * but allocates nothing per row besides the advisee's and advisor's names.  Files must be UTF-8
+ * encoded, and lines end with "\n", "\r\n" or "\r".  Large files can also be parsed in parallel,
+ * in chunks that start at line boundaries.
+ * <p>
+ * Each instance reads the lines of one region of the file, from start to finish.
+ */
+public final class ProfessorCsvReader {
+
+    /**
+     * The header line every genealogy file must start with.
+     */
+    private static final byte[] HEADER = "advisee,year,advisor".getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * The largest number of bytes mapped at once.  Files larger than this are mapped one window at
+     * a time, each window starting at the beginning of a line.
+     */
+    private static final int WINDOW_SIZE = 1 << 30;
+
+    /**
+     * The smallest number of bytes worth parsing as a separate chunk in a parallel read.
+     */
+    private static final int MIN_CHUNK_SIZE = 1 << 20;
+
+    /**
+     * Receives the rows of a genealogy file as they are parsed.
+     */
+    interface RowSink {
+
+        /**
+         * Return whether a professor named `advisee` was already received.
+         */
+        boolean contains(String advisee);
+
+        /**
+         * Receive a row stating that `advisee` earned their PhD while advised by the professor
+         * named `advisor`.
+         */
+        void add(Professor advisee, String advisor);
+    }
+
+    /**
+     * The file being read.
+     */
+    private final FileChannel channel;
+
+    /**
+     * The size of the file being read, in bytes.
+     */
+    private final long fileSize;
+
+    /**
+     * The file position at which this reader's region ends.
+     */
+    private final long regionEnd;
+
+    /**
+     * The currently mapped part of the file, covering file positions `windowStart` through
+     * `windowStart + window.limit() - 1`.
+     */
+    private ByteBuffer window;
+
+    /**
+     * The file position of the first byte of `window`.
+     */
+    private long windowStart;
+
+    /**
+     * The file position of the start of the line after the current one.
+     */
+    private long nextLineStart;
+
+    /**
+     * The current line occupies `window` indices `lineStart` through `lineEnd - 1`, excluding its
+     * terminator.
+     */
+    private int lineStart;
+
+    /**
+     * See `lineStart`.
+     */
+    private int lineEnd;
+
+    /**
+     * The advisee named on the row being parsed, or null if it has not been determined yet.
+     */
+    private String currentAdvisee;
+
+    /**
+     * A reusable buffer that names are copied into before being decoded.
+     */
+    private byte[] scratch = new byte[64];
+
+    /**
+     * Create a reader for the whole of `channel`, whose size is `fileSize`.
+     */
+    private ProfessorCsvReader(FileChannel channel, long fileSize) throws IOException {
+        this.channel = channel;
+        this.fileSize = fileSize;
+        this.regionEnd = fileSize;
+        map(0);
+    }
+
+    /**
+     * Create a reader for the lines of `channel` (whose size is `fileSize`) from file position
+     * `start` up to `end`, both of which must be line boundaries, using `window` (which starts at
+     * file position `windowStart` and covers the whole region) rather than mapping the file again.
+     */
+    private ProfessorCsvReader(FileChannel channel, long fileSize, ByteBuffer window,
+            long windowStart, long start, long end) {
+        this.channel = channel;
+        this.fileSize = fileSize;
+        this.regionEnd = end;
+        this.window = window;
+        this.windowStart = windowStart;
+        this.nextLineStart = start;
+    }
+
+    /**
+     * Return a builder holding every row of the genealogy file `file`, ready to be linked.  Throws
+     * `InputFormatException` if the header is invalid, and `UnsupportedOperationException` if a row
+     * is invalid, with the same messages as `PhDApp.csvToTree(Reader)`.
+     */
+    public static PhDTreeBuilder read(Path file) throws IOException, InputFormatException {
+        return read(file, Long.MAX_VALUE);
+    }
+
+    /**
+     * Return a builder holding every row of the first `length` bytes of the genealogy file `file`
+     * (or of the whole file, if it is shorter), as if the file ended there.  Reports the same
+     * errors as `read(Path)`.
+     */
+    static PhDTreeBuilder read(Path file, long length) throws IOException, InputFormatException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ProfessorCsvReader reader =
+                    new ProfessorCsvReader(channel, Math.min(channel.size(), length));
+            return reader.readAll();
+        }
+    }
+
+    /**
+     * Return the length of the longest prefix of `file` that consists of complete lines, each
+     * ending with "\n".  A line still being written to the end of the file is excluded.
+     */
+    static long completeLength(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buf = ByteBuffer.allocate(8192);
+            long end = channel.size();
+            while (end > 0) {
+                long start = Math.max(0, end - buf.capacity());
+                buf.clear().limit((int) (end - start));
+                while (buf.hasRemaining()) {
+                    if (channel.read(buf, start + buf.position()) < 0) {
+                        break;
+                    }
+                }
+                for (int i = buf.position() - 1; i >= 0; i--) {
+                    if (buf.get(i) == '\n') {
+                        return start + i + 1;
+                    }
+                }
+                end = start;
+            }
+            return 0;
+        }
+    }
+
+    /**
+     * Read the complete lines of `file` from file position `start`, which must be the start of a
+     * line after the root's row, and return the file position after the last one.  Each valid row
+     * is passed to `sink`; for each invalid row, the message that a full read would have thrown in
+     * an `UnsupportedOperationException` is passed to `errors` instead, and reading continues with
+     * the next line.  Reads at most about 1 GiB at a time.  Throws `IOException` if the file has
+     * become shorter than `start`.
+     */
+    static long readAppended(Path file, long start, RowSink sink, Consumer<String> errors)
+            throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long fileSize = channel.size();
+            if (fileSize < start) {
+                throw new IOException("File was truncated");
+            }
+            long size = Math.min(WINDOW_SIZE, fileSize - start);
+            if (size == 0) {
+                return start;
+            }
+            ByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, start, size);
+            int end = lastLineEnd(window);
+            if (end == 0) {
+                if (size == WINDOW_SIZE) {
+                    throw new IOException("Line too long");
+                }
+                // Only part of a line has been written so far.
+                return start;
+            }
+            ProfessorCsvReader reader = new ProfessorCsvReader(channel, start + end, window, start,
+                    start, start + end);
+            while (true) {
+                try {
+                    reader.readRows(sink);
+                    return start + end;
+                } catch (UnsupportedOperationException e) {
+                    errors.accept(e.getMessage());
+                } catch (InputFormatException e) {
+                    // The region is made of whole lines within the window, so no line is too long.
+                    throw new AssertionError(e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Return a builder holding every row of the genealogy file `file`, already linked, parsing the
+     * file and linking its rows in parallel on `pool`.  Reports the same error as `read()` for any
+     * invalid file.
+     */
+    public static PhDTreeBuilder readParallel(Path file, ForkJoinPool pool)
+            throws IOException, InputFormatException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long fileSize = channel.size();
+            ProfessorCsvReader reader = new ProfessorCsvReader(channel, fileSize);
+            PhDTreeBuilder builder = reader.readHeaderAndRoot();
+            if (reader.nextLineStart >= fileSize) {
+                return builder;
+            }
+
+            // Split the rest of the file into chunks of whole lines and parse them concurrently.
+            // Rows are only checked for duplicates and linked afterwards, also concurrently, and
+            // the first error in file order is the one reported, as in a sequential read.
+            List<Chunk> chunks = new ArrayList<>();
+            int chunksPerWindow = 4 * pool.getParallelism();
+            long windowStart = reader.nextLineStart;
+            while (windowStart < fileSize) {
+                long size = Math.min(WINDOW_SIZE, fileSize - windowStart);
+                ByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, size);
+                int windowEnd = (int) size;
+                if (windowStart + size < fileSize) {
+                    // End the window after its last complete line; the next window starts there.
+                    windowEnd = lastLineEnd(window);
+                    if (windowEnd == 0) {
+                        throw new InputFormatException("Line too long");
+                    }
+                }
+                int chunkSize = Math.max(MIN_CHUNK_SIZE, windowEnd / chunksPerWindow + 1);
+                int from = 0;
+                while (from < windowEnd) {
+                    int to = (windowEnd - from <= chunkSize)
+                            ? windowEnd : nextLineStart(window, from + chunkSize, windowEnd);
+                    chunks.add(new Chunk(new ProfessorCsvReader(channel, fileSize, window,
+                            windowStart, windowStart + from, windowStart + to)));
+                    from = to;
+                }
+                windowStart += windowEnd;
+            }
+            List<ForkJoinTask<?>> tasks = new ArrayList<>();
+            for (Chunk chunk : chunks) {
+                tasks.add(pool.submit(chunk::parse));
+            }
+            for (ForkJoinTask<?> task : tasks) {
+                task.join();
+            }
+
+            // Gather every chunk's rows in file order, then add them all to the builder at once.
+            int[] chunkStarts = new int[chunks.size() + 1];
+            for (int c = 0; c < chunks.size(); c++) {
+                chunkStarts[c + 1] = chunkStarts[c] + chunks.get(c).size;
+            }
+            Professor[] advisees = new Professor[chunkStarts[chunks.size()]];
+            String[] advisors = new String[advisees.length];
+            tasks.clear();
+            for (int c = 0; c < chunks.size(); c++) {
+                Chunk chunk = chunks.get(c);
+                int at = chunkStarts[c];
+                tasks.add(pool.submit(() -> chunk.copyTo(advisees, advisors, at)));
+            }
+            for (ForkJoinTask<?> task : tasks) {
+                task.join();
+            }
+            int offset = builder.size();
+            int duplicate = builder.addAll(advisees, advisors, pool);
+            for (int c = 0; c < chunks.size(); c++) {
+                chunks.get(c).checkErrors(builder, offset + chunkStarts[c + 1], duplicate);
+            }
+            return builder;
+        }
+    }
+
+    /**
+     * The rows parsed from one chunk of a file during a parallel read, and the error that stopped
+     * parsing, if any.
+     */
+    private static final class Chunk implements RowSink {
+
+        /**
+         * The reader for this chunk's region of the file.
+         */
+        private final ProfessorCsvReader reader;
+
+        /**
+         * The advisees parsed, in file order.
+         */
+        private Professor[] advisees = new Professor[256];
+
+        /**
+         * The advisor of each advisee in `advisees`, at the same index.
+         */
+        private String[] advisors = new String[256];
+
+        /**
+         * The number of rows parsed.
+         */
+        private int size;
+
+        /**
+         * The error that stopped parsing after `size` rows, or null if every row was parsed.
+         */
+        private UnsupportedOperationException error;
+
+        /**
+         * The advisee named on the row that caused `error`, if known, otherwise null.
+         */
+        private String errorAdvisee;
+
+        /**
+         * Create a chunk whose rows are read by `reader`.
+         */
+        Chunk(ProfessorCsvReader reader) {
+            this.reader = reader;
+        }
+
+        /**
+         * Parse every row of this chunk, stopping at the first invalid one.
+         */
+        void parse() {
+            try {
+                reader.readRows(this);
+            } catch (UnsupportedOperationException e) {
+                error = e;
+                errorAdvisee = reader.currentAdvisee;
+            } catch (IOException | InputFormatException e) {
+                // Chunks are made of whole lines within a mapped window, so nothing is read from
+                // the file itself except when checking trailing whitespace.
+                error = new UnsupportedOperationException(e.getMessage(), e);
+            }
+        }
+
+        /**
+         * Duplicates are only detected once rows from all chunks are combined.
+         */
+        @Override
+        public boolean contains(String advisee) {
+            return false;
+        }
+
+        @Override
+        public void add(Professor advisee, String advisor) {
+            if (size == advisees.length) {
+                advisees = Arrays.copyOf(advisees, 2 * size);
+                advisors = Arrays.copyOf(advisors, 2 * size);
+            }
+            advisees[size] = advisee;
+            advisors[size] = advisor;
+            size++;
+        }
+
+        /**
+         * Copy the rows of this chunk into `advisees` and `advisors`, starting at index `at`.
+         */
+        void copyTo(Professor[] advisees, String[] advisors, int at) {
+            System.arraycopy(this.advisees, 0, advisees, at, size);
+            System.arraycopy(this.advisors, 0, advisors, at, size);
+        }
+
+        /**
+         * Throw the error a sequential read would have thrown on reaching the end of this chunk,
+         * if any, given that `builder` holds the rows of every chunk, this chunk's ending before
+         * index `end`, and that `duplicate` is the index of the first row naming an advisee named
+         * on an earlier row, or -1 if there is none.  Requires no earlier chunk has an error.
+         */
+        void checkErrors(PhDTreeBuilder builder, int end, int duplicate) {
+            if (duplicate >= 0 && duplicate < end) {
+                throw new UnsupportedOperationException("Duplicate Advisees");
+            }
+            if (error != null) {
+                if (errorAdvisee != null) {
+                    int index = builder.indexOf(errorAdvisee);
+                    if (index >= 0 && index < end) {
+                        throw new UnsupportedOperationException("Duplicate Advisees");
+                    }
+                }
+                throw error;
+            }
+        }
+    }
+
+    /**
+     * Return the index just past the last "\n" in `window`, or 0 if there is none.
+     */
+    private static int lastLineEnd(ByteBuffer window) {
+        for (int i = window.limit() - 1; i >= 0; i--) {
+            if (window.get(i) == '\n') {
+                return i + 1;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Return the index just past the first "\n" in `window` at or after index `from`, or `limit`
+     * if there is none before index `limit`.
+     */
+    private static int nextLineStart(ByteBuffer window, int from, int limit) {
+        for (int i = from; i < limit; i++) {
+            if (window.get(i) == '\n') {
+                return i + 1;
+            }
+        }
+        return limit;
+    }
+
+    /**
+     * Read the whole file into a new builder.
+     */
+    private PhDTreeBuilder readAll() throws IOException, InputFormatException {
+        PhDTreeBuilder builder = readHeaderAndRoot();
+        readRows(new RowSink() {
+            @Override
+            public boolean contains(String advisee) {
+                return builder.contains(advisee);
+            }
+
+            @Override
+            public void add(Professor advisee, String advisor) {
+                builder.add(advisee, advisor);
+            }
+        });
+        return builder;
+    }
+
+    /**
+     * Read and validate the header, then read the root's row into a new builder.
+     */
+    private PhDTreeBuilder readHeaderAndRoot() throws IOException, InputFormatException {
+        // Read and validate header
+        if (!nextLine() || !lineEquals(HEADER)) {
+            throw new InputFormatException("Unexpected header");
+        }
+
+        // The first row is the root
+        if (!nextLine()) {
+            throw new UnsupportedOperationException("Unexpected number of entries");
+        }
+        int comma1 = indexOfComma(lineStart);
+        int comma2 = (comma1 < 0) ? -1 : indexOfComma(comma1 + 1);
+        if (comma2 < 0 || indexOfComma(comma2 + 1) >= 0) {
+            throw new UnsupportedOperationException("Unexpected number of entries");
+        }
+        PhDTreeBuilder builder = new PhDTreeBuilder();
+        builder.add(string(lineStart, comma1), parseYear(comma1 + 1, comma2),
+                string(comma2 + 1, lineEnd));
+        return builder;
+    }
+
+    /**
+     * Read the remaining rows of this reader's region into `sink`.  Throws
+     * `UnsupportedOperationException` at the first invalid row.
+     */
+    private void readRows(RowSink sink) throws IOException, InputFormatException {
+        while (nextLine()) {
+            currentAdvisee = null;
+            int comma1 = indexOfComma(lineStart);
+            int comma2 = (comma1 < 0) ? -1 : indexOfComma(comma1 + 1);
+            if (comma2 < 0 || indexOfComma(comma2 + 1) >= 0) {
+                // Like `Scanner.hasNext()`, ignore whitespace at the end of the file.
+                if (isBlank(lineStart, lineEnd) && restIsBlank()) {
+                    break;
+                }
+                throw new UnsupportedOperationException("Unexpected entry format");
+            }
+            currentAdvisee = string(lineStart, comma1);
+            if (sink.contains(currentAdvisee)) {
+                throw new UnsupportedOperationException("Duplicate Advisees");
+            }
+            int year = parseYear(comma1 + 1, comma2);
+            sink.add(new Professor(currentAdvisee, year), string(comma2 + 1, lineEnd));
+        }
+    }
+
+    /**
+     * Map the window of the file starting at file position `start`.
+     */
+    private void map(long start) throws IOException {
+        long size = Math.min(WINDOW_SIZE, fileSize - start);
+        window = channel.map(FileChannel.MapMode.READ_ONLY, start, size);
+        windowStart = start;
+    }
+
+    /**
+     * Advance to the next line of the file, mapping a new window if it does not fit in the current
+     * one.  Returns false if there are no more lines.  Throws `InputFormatException` if a line is
+     * longer than a window.
+     */
+    private boolean nextLine() throws IOException, InputFormatException {
+        if (nextLineStart >= regionEnd) {
+            return false;
+        }
+        while (true) {
+            int start = (int) (nextLineStart - windowStart);
+            int limit = (int) Math.min(window.limit(), regionEnd - windowStart);
+            int i = start;
+            while (i < limit) {
+                byte b = window.get(i);
+                if (b == '\n' || b == '\r') {
+                    break;
+                }
+                i++;
+            }
+            boolean windowIsLast = windowStart + limit == regionEnd;
+            // A line ending at the end of the window might continue (or be followed by the "\n" of
+            // a "\r\n") in the next one.
+            if ((i >= limit - 1) && !windowIsLast) {
+                if (start == 0) {
+                    throw new InputFormatException("Line too long");
+                }
+                map(nextLineStart);
+                continue;
+            }
+            lineStart = start;
+            lineEnd = i;
+            if (i < limit && window.get(i) == '\r' && i + 1 < limit && window.get(i + 1) == '\n') {
+                i++;
+            }
+            nextLineStart = windowStart + Math.min(i + 1, limit);
+            return true;
+        }
+    }
+
+    /**
+     * Return whether the current line consists of exactly the bytes `expected`.
+     */
+    private boolean lineEquals(byte[] expected) {
+        if (lineEnd - lineStart != expected.length) {
+            return false;
+        }
+        for (int i = 0; i < expected.length; i++) {
+            if (window.get(lineStart + i) != expected[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Return the index of the first comma in the current line at or after index `from`, or -1 if
+     * there is none.
+     */
+    private int indexOfComma(int from) {
+        for (int i = from; i < lineEnd; i++) {
+            if (window.get(i) == ',') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Return the String encoded by the bytes of `window` from index `start` up to (but excluding)
+     * index `end`.
+     */
+    private String string(int start, int end) {
+        int length = end - start;
+        if (length > scratch.length) {
+            scratch = new byte[Math.max(length, 2 * scratch.length)];
+        }
+        window.get(start, scratch, 0, length);
+        return new String(scratch, 0, length, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Return the decimal integer written in the bytes of `window` from index `start` up to (but
+     * excluding) index `end`, accepting the same input as `Integer.parseInt()` (for ASCII digits).
+     * Throws `UnsupportedOperationException` if those bytes are not such an integer.
+     */
+    private int parseYear(int start, int end) {
+        int i = start;
+        boolean negative = false;
+        if (i < end && (window.get(i) == '-' || window.get(i) == '+')) {
+            negative = window.get(i) == '-';
+            i++;
+        }
+        if (i == end) {
+            throw new UnsupportedOperationException("Advisee year must be integer");
+        }
+        // Accumulate negatively, since the magnitude of Integer.MIN_VALUE exceeds MAX_VALUE.
+        long value = 0;
+        for (; i < end; i++) {
+            int digit = window.get(i) - '0';
+            if (digit < 0 || digit > 9) {
+                throw new UnsupportedOperationException("Advisee year must be integer");
+            }
+            value = value * 10 - digit;
+            if (value < Integer.MIN_VALUE) {
+                throw new UnsupportedOperationException("Advisee year must be integer");
+            }
+        }
+        if (!negative && value == Integer.MIN_VALUE) {
+            throw new UnsupportedOperationException("Advisee year must be integer");
+        }
+        return (int) (negative ? value : -value);
+    }
+
+    /**
+     * Return whether the bytes of `window` from index `start` up to (but excluding) index `end` are
+     * all whitespace.
+     */
+    private boolean isBlank(int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (!isWhitespace(window.get(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Return whether every byte of the file after the current line is whitespace.
+     */
+    private boolean restIsBlank() throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(8192);
+        long pos = nextLineStart;
+        while (pos < fileSize) {
+            buf.clear();
+            int n = channel.read(buf, pos);
+            if (n < 0) {
+                break;
+            }
+            for (int i = 0; i < n; i++) {
+                if (!isWhitespace(buf.get(i))) {
+                    return false;
+                }
+            }
+            pos += n;
+        }
+        return true;
+    }
+
+    /**
+     * Return whether `b` is an ASCII whitespace character, as defined by
+     * `Character.isWhitespace()`.
+     */
+    private static boolean isWhitespace(byte b) {
+        return b >= 0 && Character.isWhitespace(b);
+    }
+}
@@ -0,0 +1,277 @@
+package cs2110;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+
+/**
+ * A bounded cache of query results, such as lineages and common ancestors, that evicts the least
+ * recently used result when full.  Failed queries (`NotFound`) are cached too.  The cache may be
+ * used by several threads at once.
+ * <p>
+ * Inserting a professor into a genealogy cannot change the answer to any query that succeeded,
+ * since no other professor moves: it can only make queries about the new professor succeed.  So
+ * `inserted()` only discards the cached failures that mention the new professor's name.  Moving or
+ * removing professors is rarer, and `invalidate()` discards every result that mentions them.
+ */
+final class QueryCache {
+
+    /**
+     * Answers a query that is not in the cache.
+     */
+    interface Query<T> {
+
+        /**
+         * Return the answer to the query, or throw `NotFound` if it has none.
+         */
+        T answer() throws NotFound;
+    }
+
+    /**
+     * Identifies a query: its kind (such as the name of a command) and up to two names.
+     */
+    private static final class Key {
+
+        /**
+         * The kind of query.
+         */
+        final String kind;
+
+        /**
+         * The first name queried.
+         */
+        final String first;
+
+        /**
+         * The second name queried, or null if the query is about one name.
+         */
+        final String second;
+
+        /**
+         * Create a key for a query of kind `kind` about `first` and `second`.
+         */
+        Key(String kind, String first, String second) {
+            this.kind = kind;
+            this.first = first;
+            this.second = second;
+        }
+
+        @Override
+        public boolean equals(Object ob) {
+            if (!(ob instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) ob;
+            return kind.equals(other.kind) && first.equals(other.first)
+                    && Objects.equals(second, other.second);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(kind, first, second);
+        }
+    }
+
+    /**
+     * Stands for a cached `NotFound`.
+     */
+    private static final Object MISSING = new Object();
+
+    /**
+     * The most results this cache holds.
+     */
+    private final int capacity;
+
+    /**
+     * The cached results (or `MISSING`), least recently used first.  Guarded by `this`.
+     */
+    private final LinkedHashMap<Key, Object> results;
+
+    /**
+     * The keys of the cached failures that mention each name.  Guarded by `this`.
+     */
+    private final Map<String, Set<Key>> failuresByName = new HashMap<>();
+
+    /**
+     * The number of lookups answered from the cache.
+     */
+    private final LongAdder hits = new LongAdder();
+
+    /**
+     * The number of lookups that had to answer the query.
+     */
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * Create a cache holding at most `capacity` results.  A capacity of 0 disables caching.
+     */
+    QueryCache(int capacity) {
+        assert capacity >= 0;
+        this.capacity = capacity;
+        this.results = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Object> eldest) {
+                if (size() <= QueryCache.this.capacity) {
+                    return false;
+                }
+                if (eldest.getValue() == MISSING) {
+                    forgetFailure(eldest.getKey());
+                }
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Return the answer to the query of kind `kind` about `first` and `second` (null if it is about
+     * one name), from the cache if it is there, otherwise from `query`.  Throws `NotFound` if the
+     * query has no answer.  The answer must be immutable, since it is shared by every caller.
+     */
+    @SuppressWarnings("unchecked")
+    <T> T get(String kind, String first, String second, Query<T> query) throws NotFound {
+        if (capacity == 0) {
+            return query.answer();
+        }
+        Key key = new Key(kind, first, second);
+        Object cached;
+        synchronized (this) {
+            cached = results.get(key);
+        }
+        if (cached != null) {
+            hits.increment();
+            if (cached == MISSING) {
+                throw new NotFound();
+            }
+            return (T) cached;
+        }
+        misses.increment();
+
+        // Answer outside the lock; threads missing on the same key concurrently may each answer.
+        T answer;
+        try {
+            answer = query.answer();
+        } catch (NotFound e) {
+            synchronized (this) {
+                if (results.put(key, MISSING) == null) {
+                    failuresByName.computeIfAbsent(first, k -> new HashSet<>()).add(key);
+                    if (second != null) {
+                        failuresByName.computeIfAbsent(second, k -> new HashSet<>()).add(key);
+                    }
+                }
+            }
+            throw e;
+        }
+        synchronized (this) {
+            results.put(key, answer);
+        }
+        return answer;
+    }
+
+    /**
+     * Remove the index entries of the cached failure with key `key`.  Requires holding the lock.
+     */
+    private void forgetFailure(Key key) {
+        for (String name : new String[]{key.first, key.second}) {
+            if (name != null) {
+                Set<Key> keys = failuresByName.get(name);
+                if (keys != null) {
+                    keys.remove(key);
+                    if (keys.isEmpty()) {
+                        failuresByName.remove(name);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Discard the results invalidated by inserting a professor named `name` into the genealogy:
+     * the cached failures of queries that mention them.
+     */
+    synchronized void inserted(String name) {
+        Set<Key> keys = failuresByName.remove(name);
+        if (keys == null) {
+            return;
+        }
+        for (Key key : keys) {
+            results.remove(key);
+            // The failure may also be indexed under the other name it mentions.
+            forgetFailure(key);
+        }
+    }
+
+    /**
+     * Discard the cached results of the queries that mention a name satisfying `affected`.  Takes
+     * time linear in the number of results cached.
+     */
+    synchronized void invalidate(Predicate<String> affected) {
+        Iterator<Map.Entry<Key, Object>> entries = results.entrySet().iterator();
+        while (entries.hasNext()) {
+            Map.Entry<Key, Object> entry = entries.next();
+            Key key = entry.getKey();
+            if (affected.test(key.first) || (key.second != null && affected.test(key.second))) {
+                if (entry.getValue() == MISSING) {
+                    forgetFailure(key);
+                }
+                entries.remove();
+            }
+        }
+    }
+
+    /**
+     * Discard every cached result, for example because the genealogy was replaced.
+     */
+    synchronized void clear() {
+        results.clear();
+        failuresByName.clear();
+    }
+
+    /**
+     * Return the number of results cached.
+     */
+    synchronized int size() {
+        return results.size();
+    }
+
+    /**
+     * Return the number of lookups answered from the cache.
+     */
+    long hits() {
+        return hits.sum();
+    }
+
+    /**
+     * Return the number of lookups that had to answer their query.
+     */
+    long misses() {
+        return misses.sum();
+    }
+
+    /**
+     * Return a one-line summary of this cache's size and hit rate.
+     */
+    String summary() {
+        long hits = hits();
+        long misses = misses();
+        long lookups = hits + misses;
+        return String.format("Query cache: %d of %d entries, %d hits, %d misses (%.1f%% hit rate)",
+                size(), capacity, hits, misses, (lookups == 0) ? 0.0 : 100.0 * hits / lookups);
+    }
+
+    /**
+     * Append this cache's size and counters to `json` as a JSON object.
+     */
+    void appendJson(StringBuilder json) {
+        json.append("{\"capacity\":").append(capacity)
+                .append(",\"size\":").append(size())
+                .append(",\"hits\":").append(hits())
+                .append(",\"misses\":").append(misses())
+                .append('}');
+    }
+}
@@ -0,0 +1,207 @@
+package cs2110;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.lang.reflect.Method;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A TCP server that answers lines of commands from any number of concurrent clients.  Each
+ * connection is served by its own thread (a virtual thread when the JVM supports them).  A client
+ * sends one command per line, in UTF-8, and receives the command's output followed by an empty
+ * line, so that it can tell where each response ends.  Responses are only flushed once the client
+ * has no further commands waiting, so pipelined commands are answered in large writes.
+ * <p>
+ * The server records how long each command takes to answer, and periodically prints the
+ * throughput and latency percentiles of recent commands to `System.out`.
+ */
+public final class QueryServer implements Closeable {
+
+    /**
+     * Answers the commands received by a server.
+     */
+    public interface Handler {
+
+        /**
+         * Answer the command `line`, writing the response to `out`.  Return false if the
+         * connection should be closed instead.  May be called by several threads at once.
+         */
+        boolean answer(String line, PrintWriter out);
+    }
+
+    /**
+     * The number of seconds between reports of recent throughput and latency.
+     */
+    private static final int REPORT_INTERVAL_SECONDS = 10;
+
+    /**
+     * The socket accepting connections.
+     */
+    private final ServerSocket serverSocket;
+
+    /**
+     * The handler answering commands.
+     */
+    private final Handler handler;
+
+    /**
+     * Runs one task per connection.
+     */
+    private final ExecutorService connections = newPerConnectionExecutor();
+
+    /**
+     * Prints the periodic reports.
+     */
+    private final ScheduledExecutorService reporter =
+            Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "QueryServer reporter");
+                t.setDaemon(true);
+                return t;
+            });
+
+    /**
+     * The latencies of all commands answered.
+     */
+    private final LatencyHistogram allLatencies = new LatencyHistogram();
+
+    /**
+     * The latencies of the commands answered since the last periodic report.
+     */
+    private final AtomicReference<LatencyHistogram> recentLatencies =
+            new AtomicReference<>(new LatencyHistogram());
+
+    /**
+     * The value of `System.nanoTime()` when the server was created.
+     */
+    private final long startTime = System.nanoTime();
+
+    /**
+     * Create a server for `handler` listening on port `port` of every local address (or on any
+     * free port if `port` is 0).  Throws `IOException` if the port cannot be bound.
+     */
+    public QueryServer(int port, Handler handler) throws IOException {
+        this.serverSocket = new ServerSocket(port);
+        this.handler = handler;
+    }
+
+    /**
+     * Return the port this server listens on.
+     */
+    public int port() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Return an executor that runs each task in a new virtual thread if the JVM supports them
+     * (Java 21 and later), or otherwise in a thread of a cached pool.
+     */
+    private static ExecutorService newPerConnectionExecutor() {
+        try {
+            // Looked up reflectively so that this class still compiles for older JVMs.
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException | UnsupportedOperationException e) {
+            return Executors.newCachedThreadPool(r -> {
+                Thread t = new Thread(r, "QueryServer connection");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+    }
+
+    /**
+     * Accept and serve connections until this server is closed.  Throws `IOException` if
+     * accepting a connection fails for any other reason.
+     */
+    public void serve() throws IOException {
+        reporter.scheduleAtFixedRate(this::reportRecent, REPORT_INTERVAL_SECONDS,
+                REPORT_INTERVAL_SECONDS, TimeUnit.SECONDS);
+        while (!serverSocket.isClosed()) {
+            Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (SocketException e) {
+                if (serverSocket.isClosed()) {
+                    return;
+                }
+                throw e;
+            }
+            connections.execute(() -> serveConnection(socket));
+        }
+    }
+
+    /**
+     * Answer commands from the client connected to `socket` until the client disconnects or the
+     * handler asks for the connection to be closed.
+     */
+    private void serveConnection(Socket socket) {
+        try (socket;
+                BufferedReader in = new BufferedReader(
+                        new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+                PrintWriter out = new PrintWriter(new BufferedWriter(
+                        new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8)))) {
+            socket.setTcpNoDelay(true);
+            String line;
+            while ((line = in.readLine()) != null) {
+                long start = System.nanoTime();
+                if (!handler.answer(line, out)) {
+                    break;
+                }
+                out.println();
+                if (!in.ready()) {
+                    out.flush();
+                }
+                long latency = System.nanoTime() - start;
+                allLatencies.record(latency);
+                recentLatencies.get().record(latency);
+            }
+        } catch (IOException e) {
+            // The client went away; nothing to answer.
+        }
+    }
+
+    /**
+     * Print the throughput and latency of the commands answered since the last report, if any.
+     */
+    private void reportRecent() {
+        LatencyHistogram recent = recentLatencies.getAndSet(new LatencyHistogram());
+        long count = recent.count();
+        if (count > 0) {
+            System.out.printf("Last %d s: %.1f queries/s; %s%n", REPORT_INTERVAL_SECONDS,
+                    (double) count / REPORT_INTERVAL_SECONDS, recent.summary());
+        }
+    }
+
+    /**
+     * Return a one-line report of the throughput and latency of all commands answered so far.
+     */
+    public String report() {
+        double seconds = (System.nanoTime() - startTime) / 1e9;
+        return String.format("Served for %.1f s: %.1f queries/s; %s", seconds,
+                allLatencies.count() / seconds, allLatencies.summary());
+    }
+
+    /**
+     * Stop accepting connections and close the server's socket.  Connections already accepted are
+     * served until their clients disconnect.
+     */
+    @Override
+    public void close() throws IOException {
+        reporter.shutdownNow();
+        connections.shutdown();
+        serverSocket.close();
+    }
+}
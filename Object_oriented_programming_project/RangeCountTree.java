@@ -0,0 +1,185 @@
+package cs2110;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * A merge-sort tree over a fixed sequence of ints, which counts the elements of any range of
+ * positions whose values lie in any interval in O(log^2 n) time, and lists them in O((k + 1)
+ * log^2 n) time for k results.  The sequence is divided into aligned blocks of `BLOCK` elements,
+ * pairs of blocks into aligned blocks twice as large, and so on; the values of every block are
+ * kept in sorted order.  Ranges are covered by O(log n) aligned blocks, each searched by binary
+ * search, plus fewer than `BLOCK` elements at either end that are checked one at a time.  Takes
+ * O(n log n) time and space to build.  May be queried by several threads at once.
+ */
+final class RangeCountTree {
+
+    /**
+     * The length of the smallest sorted blocks.  Shorter blocks would save little query time but
+     * use more space.
+     */
+    private static final int BLOCK = 32;
+
+    /**
+     * The sequence, in order of position.
+     */
+    private final int[] values;
+
+    /**
+     * `levels[k]` holds the values of each aligned block of `BLOCK << k` positions (the last one
+     * possibly shorter), sorted within each block.
+     */
+    private final int[][] levels;
+
+    /**
+     * Create a tree over the sequence `values`, which must not be changed afterwards.
+     */
+    RangeCountTree(int[] values) {
+        this.values = values;
+        int n = values.length;
+        int count = 1;
+        while ((long) BLOCK << (count - 1) < n) {
+            count++;
+        }
+        levels = new int[count][];
+        levels[0] = values.clone();
+        for (int start = 0; start < n; start += BLOCK) {
+            Arrays.sort(levels[0], start, Math.min(start + BLOCK, n));
+        }
+        for (int k = 1; k < count; k++) {
+            int[] prev = levels[k - 1];
+            int[] cur = new int[n];
+            int half = BLOCK << (k - 1);
+            for (int start = 0; start < n; start += 2 * half) {
+                int mid = Math.min(start + half, n);
+                merge(prev, start, mid, Math.min(start + 2 * half, n), cur);
+            }
+            levels[k] = cur;
+        }
+    }
+
+    /**
+     * Merge the sorted runs `from[lo..mid)` and `from[mid..hi)` into `to[lo..hi)`.
+     */
+    private static void merge(int[] from, int lo, int mid, int hi, int[] to) {
+        int i = lo;
+        int j = mid;
+        for (int k = lo; k < hi; k++) {
+            if (j >= hi || (i < mid && from[i] <= from[j])) {
+                to[k] = from[i++];
+            } else {
+                to[k] = from[j++];
+            }
+        }
+    }
+
+    /**
+     * Return the number of positions in `[lo..hi)` whose values lie between `min` and `max`
+     * (inclusive).  Requires `0 <= lo <= hi <= n`.
+     */
+    int count(int lo, int hi, int min, int max) {
+        int count = 0;
+        int pos = lo;
+        while (pos < hi) {
+            int k = largestBlock(pos, hi);
+            if (k < 0) {
+                if (values[pos] >= min && values[pos] <= max) {
+                    count++;
+                }
+                pos++;
+            } else {
+                int end = Math.min(pos + (BLOCK << k), values.length);
+                count += countInBlock(k, pos, end, min, max);
+                pos = end;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Pass each position in `[lo..hi)` whose value lies between `min` and `max` (inclusive) to
+     * `action`, in increasing order.  Requires `0 <= lo <= hi <= n`.
+     */
+    void forEach(int lo, int hi, int min, int max, IntConsumer action) {
+        int pos = lo;
+        while (pos < hi) {
+            int k = largestBlock(pos, hi);
+            if (k < 0) {
+                if (values[pos] >= min && values[pos] <= max) {
+                    action.accept(pos);
+                }
+                pos++;
+            } else {
+                int end = Math.min(pos + (BLOCK << k), values.length);
+                forEachInBlock(k, pos, end, min, max, action);
+                pos = end;
+            }
+        }
+    }
+
+    /**
+     * Pass each position of the level-`k` block `[start..end)` whose value lies between `min` and
+     * `max` to `action`, in increasing order, skipping the halves of the block that have none.
+     */
+    private void forEachInBlock(int k, int start, int end, int min, int max,
+            IntConsumer action) {
+        if (countInBlock(k, start, end, min, max) == 0) {
+            return;
+        }
+        if (k == 0) {
+            for (int pos = start; pos < end; pos++) {
+                if (values[pos] >= min && values[pos] <= max) {
+                    action.accept(pos);
+                }
+            }
+            return;
+        }
+        int mid = Math.min(start + (BLOCK << (k - 1)), end);
+        forEachInBlock(k - 1, start, mid, min, max, action);
+        if (mid < end) {
+            forEachInBlock(k - 1, mid, end, min, max, action);
+        }
+    }
+
+    /**
+     * Return the level of the largest aligned block that starts at `pos` and ends by `hi` (or at
+     * the end of the sequence), or -1 if there is none.
+     */
+    private int largestBlock(int pos, int hi) {
+        for (int k = levels.length - 1; k >= 0; k--) {
+            int size = BLOCK << k;
+            if (pos % size == 0 && Math.min(pos + size, values.length) <= hi) {
+                return k;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Return the number of values between `min` and `max` in the sorted level-`k` block
+     * `[start..end)`.
+     */
+    private int countInBlock(int k, int start, int end, int min, int max) {
+        if (min > max) {
+            return 0;
+        }
+        int[] sorted = levels[k];
+        return lowerBound(sorted, start, end, max + 1L) - lowerBound(sorted, start, end, min);
+    }
+
+    /**
+     * Return the first index in the sorted range `a[lo..hi)` whose value is at least `key`, or `hi`
+     * if there is none.
+     */
+    private static int lowerBound(int[] a, int lo, int hi, long key) {
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (a[mid] < key) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+}
@@ -0,0 +1,97 @@
+package cs2110;
+
+import java.util.PriorityQueue;
+import java.util.function.IntPredicate;
+
+/**
+ * A segment tree over a fixed sequence of ints that finds the position of the greatest value in any
+ * range of positions in O(log n) time, and lists the positions of a range in decreasing order of
+ * value in O(k log n) time for the first k.  Ties are broken in favor of the earlier position.
+ * Takes O(n) time and space to build.  May be queried by several threads at once.
+ */
+final class RangeMaxTree {
+
+    /**
+     * The sequence, in order of position.
+     */
+    private final int[] values;
+
+    /**
+     * The segment tree, stored bottom-up: `best[n + i]` is position `i`, and `best[i]` for `i` in
+     * `[1..n)` is the better of `best[2i]` and `best[2i + 1]`.
+     */
+    private final int[] best;
+
+    /**
+     * Create a tree over the sequence `values`, which must not be changed afterwards.
+     */
+    RangeMaxTree(int[] values) {
+        this.values = values;
+        int n = values.length;
+        best = new int[2 * n];
+        for (int i = 0; i < n; i++) {
+            best[n + i] = i;
+        }
+        for (int i = n - 1; i > 0; i--) {
+            best[i] = better(best[2 * i], best[2 * i + 1]);
+        }
+    }
+
+    /**
+     * Return whichever of the positions `a` and `b` has the greater value, or the earlier one if
+     * their values are equal.
+     */
+    private int better(int a, int b) {
+        if (values[a] != values[b]) {
+            return values[a] > values[b] ? a : b;
+        }
+        return Math.min(a, b);
+    }
+
+    /**
+     * Return the position of the greatest value in `[lo..hi)`.  Requires `0 <= lo < hi <= n`.
+     */
+    int argMax(int lo, int hi) {
+        assert lo < hi;
+        int n = values.length;
+        int result = lo;
+        for (int l = lo + n, r = hi + n; l < r; l >>= 1, r >>= 1) {
+            if ((l & 1) == 1) {
+                result = better(result, best[l++]);
+            }
+            if ((r & 1) == 1) {
+                result = better(result, best[--r]);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Pass the positions in `[lo..hi)` to `action` in decreasing order of value (increasing order
+     * of position among equal values) until it returns false or every position has been passed.
+     * Requires `0 <= lo <= hi <= n`.
+     */
+    void forEachDescending(int lo, int hi, IntPredicate action) {
+        // Each entry is {position of the greatest value in a range, start of range, end of range};
+        // the best entry's position is the next in order, and the rest of its range is split in
+        // two around it.
+        PriorityQueue<int[]> ranges = new PriorityQueue<>(
+                (x, y) -> (x[0] == y[0]) ? 0 : (better(x[0], y[0]) == x[0] ? -1 : 1));
+        if (lo < hi) {
+            ranges.add(new int[]{argMax(lo, hi), lo, hi});
+        }
+        while (!ranges.isEmpty()) {
+            int[] range = ranges.poll();
+            int pos = range[0];
+            if (!action.test(pos)) {
+                return;
+            }
+            if (range[1] < pos) {
+                ranges.add(new int[]{argMax(range[1], pos), range[1], pos});
+            }
+            if (pos + 1 < range[2]) {
+                ranges.add(new int[]{argMax(pos + 1, range[2]), pos + 1, range[2]});
+            }
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package cs2110;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Replays a command script through `PhDApp`'s `-i` path against a genealogy file and reports
+ * throughput and latency percentiles per command.  The genealogy is loaded once.  The script is
+ * then run a few times to warm up the JIT compiler and a few more times to measure.  Command
+ * output is discarded while measuring, so that the terminal does not dominate the results.
+ */
+public final class ReplayHarness {
+
+    /**
+     * Replay as configured by the program arguments `args`; see `printUsage()`.  Exit with error
+     * code 1 on failure.
+     */
+    public static void main(String[] args) {
+        int warmupRuns = 2;
+        int measuredRuns = 3;
+        String snapshot = "";
+        List<String> files = new ArrayList<>();
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--warmup":
+                        warmupRuns = Integer.parseInt(argumentAfter(args, i++));
+                        break;
+                    case "--runs":
+                        measuredRuns = Integer.parseInt(argumentAfter(args, i++));
+                        break;
+                    case "--snapshot":
+                        snapshot = argumentAfter(args, i++);
+                        break;
+                    default:
+                        files.add(args[i]);
+                }
+            }
+            if (files.size() != 2 && !(files.size() == 1 && !snapshot.isEmpty())) {
+                throw new IllegalArgumentException("Expected a genealogy file and a script");
+            }
+            if (warmupRuns < 0 || measuredRuns <= 0) {
+                throw new IllegalArgumentException("Invalid number of runs");
+            }
+        } catch (NumberFormatException e) {
+            System.err.println("Invalid number of runs");
+            printUsage();
+            System.exit(1);
+            return;
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            printUsage();
+            System.exit(1);
+            return;
+        }
+
+        String script = files.get(files.size() - 1);
+        List<String> appArgs = new ArrayList<>(List.of("-i", script));
+        if (!snapshot.isEmpty()) {
+            appArgs.add(0, snapshot);
+            appArgs.add(0, "--snapshot");
+        }
+        if (files.size() == 2) {
+            appArgs.add(files.get(0));
+        }
+        PhDApp app = new PhDApp(appArgs.toArray(new String[0]));
+        long loadStart = System.nanoTime();
+        if (!app.loadTree()) {
+            System.exit(1);
+        }
+        long loadNanos = System.nanoTime() - loadStart;
+
+        System.out.printf("Replaying %s against %s (Java %s, %d processors); load %.1f ms%n",
+                script, snapshot.isEmpty() ? files.get(0) : snapshot,
+                System.getProperty("java.version"), Runtime.getRuntime().availableProcessors(),
+                loadNanos / 1e6);
+        Map<String, LatencyHistogram> latencies = new TreeMap<>();
+        LatencyHistogram all = new LatencyHistogram();
+        PrintStream stdout = System.out;
+        for (int run = 1; run <= warmupRuns + measuredRuns; run++) {
+            boolean measured = run > warmupRuns;
+            long[] count = {0};
+            app.setCommandObserver((name, nanos) -> {
+                count[0]++;
+                if (measured) {
+                    latencies.computeIfAbsent(name, k -> new LatencyHistogram()).record(nanos);
+                    all.record(nanos);
+                }
+            });
+            System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+            long start = System.nanoTime();
+            try {
+                app.processCommands();
+            } finally {
+                System.setOut(stdout);
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("%s run %d: %d commands in %.3f s, %.1f commands/s%n",
+                    measured ? "Measured" : "Warm-up", measured ? run - warmupRuns : run,
+                    count[0], seconds, count[0] / seconds);
+        }
+        app.setCommandObserver(null);
+
+        System.out.printf("%-10s %10s %10s %10s %10s %10s%n", "command", "count", "p50 us",
+                "p99 us", "p999 us", "max us");
+        for (Map.Entry<String, LatencyHistogram> entry : latencies.entrySet()) {
+            printRow(entry.getKey().isEmpty() ? "(blank)" : entry.getKey(), entry.getValue());
+        }
+        printRow("all", all);
+    }
+
+    /**
+     * Return the argument after `args[i]`, or throw `IllegalArgumentException` if there is none.
+     */
+    private static String argumentAfter(String[] args, int i) {
+        if (i + 1 >= args.length) {
+            throw new IllegalArgumentException("Missing argument after " + args[i]);
+        }
+        return args[i + 1];
+    }
+
+    /**
+     * Print the count and latency percentiles of `histogram` in a row labeled `label`.
+     */
+    private static void printRow(String label, LatencyHistogram histogram) {
+        System.out.printf("%-10s %10d %10.1f %10.1f %10.1f %10.1f%n", label, histogram.count(),
+                histogram.valueAt(0.5) / 1e3, histogram.valueAt(0.99) / 1e3,
+                histogram.valueAt(0.999) / 1e3, histogram.valueAt(1.0) / 1e3);
+    }
+
+    /**
+     * Print a usage message to System.err.
+     */
+    public static void printUsage() {
+        System.err.println("Usage: java cs2110.ReplayHarness [--warmup <runs>] [--runs <runs>] "
+                + "[--snapshot <snapshot file>] [filename.csv] <input script>");
+    }
+}
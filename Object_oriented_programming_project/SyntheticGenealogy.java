@@ -0,0 +1,219 @@
+package cs2110;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * A randomly generated academic genealogy of a chosen shape and size, for benchmarks and load
+ * tests.  Professor `i` is named "P" followed by `i`, and every professor's advisor has a smaller
+ * number than they do, so inserting professors in order of their numbers always succeeds.
+ */
+public final class SyntheticGenealogy {
+
+    /**
+     * The shapes of genealogy that can be generated.
+     */
+    public enum Shape {
+        /**
+         * Each professor advises the next one: a single path as deep as the genealogy is large.
+         */
+        CHAIN,
+
+        /**
+         * The root advises every other professor.
+         */
+        FAN_OUT,
+
+        /**
+         * A complete binary tree, filled level by level.
+         */
+        BALANCED,
+
+        /**
+         * Advisors are chosen by preferential attachment, so that the number of advisees follows a
+         * power law, as in real genealogies: a few professors advise very many, most advise none.
+         */
+        POWER_LAW;
+
+        /**
+         * Return the shape named `name`, ignoring case and treating '-' like '_'.  Throws
+         * `IllegalArgumentException` if there is no such shape.
+         */
+        public static Shape parse(String name) {
+            return valueOf(name.trim().toUpperCase(Locale.ROOT).replace('-', '_'));
+        }
+    }
+
+    /**
+     * The professors, in order of their numbers.  `profs[0]` is the root.
+     */
+    private final Professor[] profs;
+
+    /**
+     * The number of each professor's advisor; -1 for the root.
+     */
+    private final int[] parents;
+
+    /**
+     * Create a genealogy of the professors `profs` with advisors `parents`.
+     */
+    private SyntheticGenealogy(Professor[] profs, int[] parents) {
+        this.profs = profs;
+        this.parents = parents;
+    }
+
+    /**
+     * Return a new genealogy of `size` professors with shape `shape`, generated from the random
+     * seed `seed`.  Requires `size` is positive.
+     */
+    public static SyntheticGenealogy generate(Shape shape, int size, long seed) {
+        assert size > 0;
+        Random random = new Random(seed);
+        int[] parents = new int[size];
+        parents[0] = -1;
+        for (int i = 1; i < size; i++) {
+            switch (shape) {
+                case CHAIN:
+                    parents[i] = i - 1;
+                    break;
+                case FAN_OUT:
+                    parents[i] = 0;
+                    break;
+                case BALANCED:
+                    parents[i] = (i - 1) / 2;
+                    break;
+                case POWER_LAW:
+                    // Half the time pick any earlier professor.  Otherwise pick the advisor of one,
+                    // which picks each professor in proportion to their number of advisees.
+                    int j = random.nextInt(i);
+                    parents[i] = (j == 0 || random.nextBoolean()) ? j : parents[j];
+                    break;
+                default:
+                    throw new AssertionError(shape);
+            }
+        }
+        return withYears(parents, random);
+    }
+
+    /**
+     * Return a new genealogy of `size` professors in which no professor has more than `maxFanOut`
+     * advisees and no path from the root has more than `maxDepth` professors, generated from the
+     * random seed `seed`.  Each professor after the root is advised by a professor chosen at
+     * random among those with room for another advisee.  Throws `IllegalArgumentException` if
+     * `size` professors do not fit within those limits.  Requires all arguments but `seed` are
+     * positive.
+     */
+    public static SyntheticGenealogy generate(int size, int maxFanOut, int maxDepth, long seed) {
+        assert size > 0 && maxFanOut > 0 && maxDepth > 0;
+        Random random = new Random(seed);
+        int[] parents = new int[size];
+        int[] depths = new int[size];
+        int[] fanOuts = new int[size];
+        // The professors who may still take another advisee, in no particular order.
+        int[] open = new int[size];
+        int openCount = 0;
+        parents[0] = -1;
+        depths[0] = 1;
+        if (maxDepth > 1) {
+            open[openCount++] = 0;
+        }
+        for (int i = 1; i < size; i++) {
+            if (openCount == 0) {
+                throw new IllegalArgumentException("Cannot fit " + size + " professors within a "
+                        + "fan-out of " + maxFanOut + " and a depth of " + maxDepth);
+            }
+            int k = random.nextInt(openCount);
+            int advisor = open[k];
+            parents[i] = advisor;
+            depths[i] = depths[advisor] + 1;
+            if (++fanOuts[advisor] == maxFanOut) {
+                open[k] = open[--openCount];
+            }
+            if (depths[i] < maxDepth) {
+                open[openCount++] = i;
+            }
+        }
+        return withYears(parents, random);
+    }
+
+    /**
+     * Return a genealogy with advisors `parents` and random degree years drawn from `random`.
+     */
+    private static SyntheticGenealogy withYears(int[] parents, Random random) {
+        int size = parents.length;
+        Professor[] profs = new Professor[size];
+        // Give each professor a degree year a few years after their advisor's, as in reality, but
+        // wrap around so that deep genealogies keep plausible years.
+        int[] years = new int[size];
+        years[0] = 1850;
+        profs[0] = new Professor(name(0), years[0]);
+        for (int i = 1; i < size; i++) {
+            years[i] = 1850 + (years[parents[i]] - 1850 + 3 + random.nextInt(25)) % 175;
+            profs[i] = new Professor(name(i), years[i]);
+        }
+        return new SyntheticGenealogy(profs, parents);
+    }
+
+    /**
+     * Return the name of professor number `i`.
+     */
+    public static String name(int i) {
+        return "P" + i;
+    }
+
+    /**
+     * Return the number of professors in this genealogy.
+     */
+    public int size() {
+        return profs.length;
+    }
+
+    /**
+     * Return professor number `i`.
+     */
+    public Professor prof(int i) {
+        return profs[i];
+    }
+
+    /**
+     * Return the number of the advisor of professor number `i`, or -1 if `i` is 0 (the root).
+     */
+    public int advisor(int i) {
+        return parents[i];
+    }
+
+    /**
+     * Return a new PhDTree of this genealogy, built directly rather than by inserting each
+     * professor.
+     */
+    public PhDTree toTree() {
+        return PhDTree.assemble(profs.clone(), parents.clone());
+    }
+
+    /**
+     * Write this genealogy to the file `file` in the CSV format read by `PhDApp`, root first and
+     * the other professors in order of their numbers.
+     */
+    public void writeCsv(Path file) throws IOException {
+        try (Writer out = new BufferedWriter(
+                Files.newBufferedWriter(file, StandardCharsets.UTF_8), 1 << 16)) {
+            out.write("advisee,year,advisor\n");
+            for (int i = 0; i < profs.length; i++) {
+                out.write(profs[i].name());
+                out.write(',');
+                out.write(Integer.toString(profs[i].phdYear()));
+                out.write(',');
+                if (parents[i] >= 0) {
+                    out.write(profs[parents[i]].name());
+                }
+                out.write('\n');
+            }
+        }
+    }
+}
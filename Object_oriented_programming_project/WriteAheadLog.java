@@ -0,0 +1,461 @@
+package cs2110;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * A write-ahead log of the changes made to a genealogy, so that they survive a restart.  Every
+ * change is numbered with a log sequence number (LSN), one more than the previous change's, and a
+ * snapshot records the LSN of the last change it includes (see `PhDSnapshot`), so the state of a
+ * genealogy is a snapshot plus the logged changes with greater LSNs.
+ * <p>
+ * Changes are written and synced to disk by a daemon thread, which writes every change appended
+ * while it synced the last group as one group.  `append()` does not wait for its change to be
+ * durable: a caller that must not acknowledge a change before it is durable calls `sync(lsn)` with
+ * the change's LSN, and threads waiting for changes in the same group share its one sync.
+ * `sync()` waits for every change appended so far.  The log file starts with the
+ * magic bytes "PhDL" and a version number; each change is then stored as its length, a CRC-32
+ * checksum and the change itself, so a change torn by a crash is detected and discarded when the
+ * log is next opened.
+ */
+final class WriteAheadLog implements Closeable {
+
+    /**
+     * The type of a change adding a professor.
+     */
+    static final byte ADD = 1;
+
+    /**
+     * The type of a change moving a professor to a new advisor.
+     */
+    static final byte MOVE = 2;
+
+    /**
+     * The type of a change removing a professor.
+     */
+    static final byte REMOVE = 3;
+
+    /**
+     * A change read from a log.
+     */
+    static final class Change {
+
+        /**
+         * The log sequence number of the change.
+         */
+        final long lsn;
+
+        /**
+         * The type of change: `ADD`, `MOVE` or `REMOVE`.
+         */
+        final byte type;
+
+        /**
+         * The professor added, moved or removed.
+         */
+        final String name;
+
+        /**
+         * The PhD year of the professor added (0 for other types).
+         */
+        final int year;
+
+        /**
+         * The (new) advisor of the professor added or moved ("" for a removal).
+         */
+        final String advisor;
+
+        /**
+         * Create a change with the given fields.
+         */
+        Change(long lsn, byte type, String name, int year, String advisor) {
+            this.lsn = lsn;
+            this.type = type;
+            this.name = name;
+            this.year = year;
+            this.advisor = advisor;
+        }
+    }
+
+    /**
+     * The bytes that every log file starts with.
+     */
+    private static final byte[] MAGIC = {'P', 'h', 'D', 'L'};
+
+    /**
+     * The version of the format written by this class.
+     */
+    private static final int VERSION = 1;
+
+    /**
+     * The length of the magic bytes and version at the start of a log file.
+     */
+    private static final int HEADER_LENGTH = MAGIC.length + Integer.BYTES;
+
+    /**
+     * The longest change that can be read, to reject a corrupt length before allocating for it.
+     */
+    private static final int MAX_CHANGE_LENGTH = 1 << 20;
+
+    /**
+     * The log file.
+     */
+    private final Path file;
+
+    /**
+     * The log file, open for writing at its end.
+     */
+    private final FileChannel channel;
+
+    /**
+     * The thread that writes and syncs groups of changes.
+     */
+    private final Thread flusher;
+
+    /**
+     * The changes appended but not yet written, in the log's format.  Guarded by `this`.
+     */
+    private final ByteArrayOutputStream pending = new ByteArrayOutputStream();
+
+    /**
+     * The LSN of the last change appended.  Guarded by `this`.
+     */
+    private long lastLsn;
+
+    /**
+     * The LSN of the last change written and synced to disk.  Guarded by `this`.
+     */
+    private long durableLsn;
+
+    /**
+     * The length of the log file once every change appended has been written.  Guarded by `this`.
+     */
+    private long length;
+
+    /**
+     * The error that stopped the flusher, or null if there was none.  Guarded by `this`.
+     */
+    private IOException failure;
+
+    /**
+     * Whether the log has been closed.  Guarded by `this`.
+     */
+    private boolean closed;
+
+    /**
+     * Create a log appending to `channel`, which is positioned at the end of the log file `file`
+     * of length `length`, whose last change has LSN `lastLsn`, and start its flusher.
+     */
+    private WriteAheadLog(Path file, FileChannel channel, long length, long lastLsn) {
+        this.file = file;
+        this.channel = channel;
+        this.length = length;
+        this.lastLsn = lastLsn;
+        this.durableLsn = lastLsn;
+        flusher = new Thread(this::flush, "WriteAheadLog " + file.getFileName());
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    /**
+     * Open the log file `file`, creating it if it does not exist, and pass the changes in it with
+     * LSNs greater than `baseLsn` to `replay`, in order.  A torn or corrupt change, and everything
+     * after it, is discarded.  Changes appended to the returned log are numbered from the greater
+     * of `baseLsn` and the last LSN in the file.  Throws `InputFormatException` if the file is not
+     * a log in a supported version of the format.
+     */
+    static WriteAheadLog open(Path file, long baseLsn, Consumer<Change> replay)
+            throws IOException, InputFormatException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            long lastLsn = baseLsn;
+            long valid = HEADER_LENGTH;
+            if (channel.size() == 0) {
+                writeHeader(channel);
+            } else {
+                channel.position(0);
+                // Not closed, since closing it would close the channel.
+                DataInputStream in = new DataInputStream(
+                        new BufferedInputStream(Channels.newInputStream(channel), 1 << 16));
+                readHeader(in);
+                byte[] bytes;
+                while ((bytes = readChange(in)) != null) {
+                    valid += 2 * Integer.BYTES + bytes.length;
+                    Change change = decode(bytes);
+                    lastLsn = Math.max(lastLsn, change.lsn);
+                    if (change.lsn > baseLsn) {
+                        replay.accept(change);
+                    }
+                }
+                if (valid < channel.size()) {
+                    System.err.println("Discarded " + (channel.size() - valid)
+                            + " bytes of incomplete changes at the end of " + file + ".");
+                    channel.truncate(valid);
+                    channel.force(true);
+                }
+            }
+            channel.position(valid);
+            return new WriteAheadLog(file, channel, valid, lastLsn);
+        } catch (IOException | InputFormatException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Write the magic bytes and version to the empty log file `channel` and sync it.
+     */
+    private static void writeHeader(FileChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+        header.put(MAGIC).putInt(VERSION).flip();
+        while (header.hasRemaining()) {
+            channel.write(header, HEADER_LENGTH - header.remaining());
+        }
+        channel.force(true);
+    }
+
+    /**
+     * Read the magic bytes and version at the start of a log from `in`.  Throws
+     * `InputFormatException` if they are not those of a supported version of the format.
+     */
+    private static void readHeader(DataInputStream in) throws IOException, InputFormatException {
+        try {
+            for (byte b : MAGIC) {
+                if (in.readByte() != b) {
+                    throw new InputFormatException("Not a genealogy log");
+                }
+            }
+            int version = in.readInt();
+            if (version != VERSION) {
+                throw new InputFormatException("Unsupported log version " + version);
+            }
+        } catch (EOFException e) {
+            throw new InputFormatException("Not a genealogy log");
+        }
+    }
+
+    /**
+     * Read the bytes of the next change from `in`, without its length and checksum, or return
+     * null if the log ends, or its next change is torn or corrupt.
+     */
+    private static byte[] readChange(DataInputStream in) throws IOException {
+        try {
+            int changeLength = in.readInt();
+            int checksum = in.readInt();
+            if (changeLength <= 0 || changeLength > MAX_CHANGE_LENGTH) {
+                return null;
+            }
+            byte[] bytes = new byte[changeLength];
+            in.readFully(bytes);
+            CRC32 crc = new CRC32();
+            crc.update(bytes);
+            return ((int) crc.getValue() == checksum) ? bytes : null;
+        } catch (EOFException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Return the change whose bytes, as returned by `encode()`, are `bytes`.
+     */
+    private static Change decode(byte[] bytes) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        return new Change(in.readLong(), in.readByte(), in.readUTF(), in.readInt(), in.readUTF());
+    }
+
+    /**
+     * Return the bytes of `change`, without its length and checksum.
+     */
+    private static byte[] encode(Change change) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeLong(change.lsn);
+            out.writeByte(change.type);
+            out.writeUTF(change.name);
+            out.writeInt(change.year);
+            out.writeUTF(change.advisor);
+        } catch (IOException e) {
+            // A ByteArrayOutputStream does not throw
+            throw new AssertionError(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Append a change of type `type` to the log, with the given professor name, year and advisor
+     * name, and return its LSN.  The change is written and synced by the flusher soon after; call
+     * `sync(lsn)` to wait for it.  Throws `IOException` if the flusher has failed, or the log is
+     * closed.
+     */
+    synchronized long append(byte type, String name, int year, String advisor)
+            throws IOException {
+        if (failure != null) {
+            throw failure;
+        }
+        if (closed) {
+            throw new IOException("The log " + file + " is closed");
+        }
+        Change change = new Change(lastLsn + 1, type, name, year, advisor);
+        byte[] bytes = encode(change);
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        ByteBuffer prefix = ByteBuffer.allocate(2 * Integer.BYTES);
+        prefix.putInt(bytes.length).putInt((int) crc.getValue());
+        pending.write(prefix.array(), 0, prefix.capacity());
+        pending.write(bytes, 0, bytes.length);
+        length += prefix.capacity() + bytes.length;
+        lastLsn = change.lsn;
+        notifyAll();
+        return lastLsn;
+    }
+
+    /**
+     * Write and sync the pending changes, one group at a time, until the log is closed and none
+     * are left, or writing fails.
+     */
+    private void flush() {
+        while (true) {
+            byte[] group;
+            long groupLsn;
+            synchronized (this) {
+                while (pending.size() == 0 && !closed) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        // Only `close()` stops the flusher, so that no appended change is lost.
+                    }
+                }
+                if (pending.size() == 0) {
+                    return;
+                }
+                group = pending.toByteArray();
+                pending.reset();
+                groupLsn = lastLsn;
+            }
+            try {
+                ByteBuffer buffer = ByteBuffer.wrap(group);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                channel.force(false);
+            } catch (IOException e) {
+                synchronized (this) {
+                    failure = e;
+                    notifyAll();
+                }
+                System.err.println("Could not write to " + file + ": " + e.getMessage());
+                return;
+            }
+            synchronized (this) {
+                durableLsn = groupLsn;
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Wait until every change appended so far has been synced to disk, and return the LSN of the
+     * last one.  Throws `IOException` if the flusher failed.
+     */
+    synchronized long sync() throws IOException {
+        long target = lastLsn;
+        sync(target);
+        return target;
+    }
+
+    /**
+     * Wait until the change with LSN `lsn`, and every change before it, has been synced to disk.
+     * Throws `IOException` if the flusher failed before syncing it.  Requires `lsn` was returned
+     * by `append()`.
+     */
+    synchronized void sync(long lsn) throws IOException {
+        assert lsn <= lastLsn;
+        boolean interrupted = false;
+        while (durableLsn < lsn && failure == null) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (durableLsn < lsn) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Discard every change in the log, keeping its LSN, once they are included in a snapshot.
+     * Changes must not be appended concurrently.
+     */
+    synchronized void reset() throws IOException {
+        sync();
+        channel.truncate(HEADER_LENGTH);
+        channel.position(HEADER_LENGTH);
+        channel.force(true);
+        length = HEADER_LENGTH;
+    }
+
+    /**
+     * Return the LSN of the last change appended to this log, or of the snapshot it continues if
+     * there is none.
+     */
+    synchronized long lastLsn() {
+        return lastLsn;
+    }
+
+    /**
+     * Return the length in bytes of the log file once every change appended has been written.
+     */
+    synchronized long length() {
+        return length;
+    }
+
+    /**
+     * Sync every change appended so far, stop the flusher and close the log file.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            notifyAll();
+        }
+        boolean interrupted = false;
+        while (true) {
+            try {
+                flusher.join();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        channel.close();
+        synchronized (this) {
+            if (failure != null) {
+                throw failure;
+            }
+        }
+    }
+}
@@ -0,0 +1,271 @@
+package cs2110;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * JMH benchmarks of the operations of `PhDTree` and of `PhDApp.csvToTree()`, on synthetic
+ * genealogies (see `SyntheticGenealogy`) of every shape, with 10^3 to 10^7 professors.  Each
+ * benchmark runs in forked JVMs, and its results are consumed by JMH so that the JIT compiler
+ * cannot eliminate them.  Queries are about professors chosen at random from the genealogy, in a
+ * fixed order that each invocation steps through.
+ * <p>
+ * Build with `mvn -B package` and run with `java -jar jmh/target/benchmarks.jar`; JMH's usual
+ * options select benchmarks and parameters, for example `-p size=1000,100000 -p shape=CHAIN`.
+ * The genealogies of 10^7 professors need a heap of about 8 GB, given with `-jvmArgs -Xmx8g`.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class GenealogyJmhBenchmark {
+
+    /**
+     * The number of professors queried, in rotation; a power of two.
+     */
+    private static final int QUERIES = 1024;
+
+    /**
+     * A genealogy of one shape and size, with the professors and subtrees that are queried.
+     */
+    @State(Scope.Benchmark)
+    public static class Genealogy {
+
+        /**
+         * The shape of the genealogy.
+         */
+        @Param({"CHAIN", "FAN_OUT", "BALANCED", "POWER_LAW"})
+        public SyntheticGenealogy.Shape shape;
+
+        /**
+         * The number of professors in the genealogy.
+         */
+        @Param({"1000", "10000", "100000", "1000000", "10000000"})
+        public int size;
+
+        /**
+         * The genealogy.
+         */
+        SyntheticGenealogy genealogy;
+
+        /**
+         * The tree of the genealogy, which is only queried.
+         */
+        PhDTree tree;
+
+        /**
+         * The names of the professors queried.
+         */
+        final String[] names = new String[QUERIES];
+
+        /**
+         * The names of the professors whose common ancestors with `names` are queried.
+         */
+        final String[] others = new String[QUERIES];
+
+        /**
+         * The subtrees rooted at the professors named in `names`.
+         */
+        final PhDTree[] subtrees = new PhDTree[QUERIES];
+
+        /**
+         * Generate the genealogy and choose the professors queried.
+         */
+        @Setup(Level.Trial)
+        public void setUp() throws NotFound {
+            genealogy = SyntheticGenealogy.generate(shape, size, 2110);
+            tree = genealogy.toTree();
+            Random random = new Random(2110);
+            for (int i = 0; i < QUERIES; i++) {
+                names[i] = SyntheticGenealogy.name(random.nextInt(size));
+                others[i] = SyntheticGenealogy.name(random.nextInt(size));
+                subtrees[i] = tree.findTree(names[i]);
+            }
+        }
+    }
+
+    /**
+     * The genealogy of a `Genealogy` state written to a CSV file.
+     */
+    @State(Scope.Benchmark)
+    public static class CsvFile {
+
+        /**
+         * The CSV file.
+         */
+        Path file;
+
+        /**
+         * Write the genealogy of `genealogy` to a temporary file.
+         */
+        @Setup(Level.Trial)
+        public void setUp(Genealogy genealogy) throws IOException {
+            file = Files.createTempFile("genealogy", ".csv");
+            genealogy.genealogy.writeCsv(file);
+        }
+
+        /**
+         * Delete the file.
+         */
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    /**
+     * A copy of the tree of a `Genealogy` state that advisees are inserted into, rebuilt for each
+     * iteration so that it only grows by the advisees inserted in one iteration.
+     */
+    @State(Scope.Thread)
+    public static class InsertTarget {
+
+        /**
+         * The tree that advisees are inserted into.
+         */
+        PhDTree tree;
+
+        /**
+         * The number of the next professor to insert.
+         */
+        int next;
+
+        /**
+         * Copy the tree of `genealogy`.
+         */
+        @Setup(Level.Iteration)
+        public void setUp(Genealogy genealogy) {
+            tree = genealogy.genealogy.toTree();
+            next = genealogy.size;
+        }
+    }
+
+    /**
+     * The position in the rotation of professors queried.
+     */
+    @State(Scope.Thread)
+    public static class Cursor {
+
+        /**
+         * The number of queries made so far.
+         */
+        int next;
+
+        /**
+         * Return the position of the next query and advance.
+         */
+        int advance() {
+            return next++ & (QUERIES - 1);
+        }
+    }
+
+    /**
+     * Parse the genealogy's CSV file into a tree.
+     */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public PhDTree csvToTree(CsvFile csv) throws IOException, InputFormatException {
+        return PhDApp.csvToTree(csv.file);
+    }
+
+    /**
+     * Insert a new leaf under the next professor queried.
+     */
+    @Benchmark
+    public PhDTree insert(Genealogy genealogy, InsertTarget target, Cursor cursor)
+            throws NotFound {
+        String advisor = genealogy.names[cursor.advance()];
+        target.tree.insert(advisor, new Professor(SyntheticGenealogy.name(target.next++), 2000));
+        return target.tree;
+    }
+
+    /**
+     * Find the subtree of the next professor queried.
+     */
+    @Benchmark
+    public PhDTree findTree(Genealogy genealogy, Cursor cursor) throws NotFound {
+        return genealogy.tree.findTree(genealogy.names[cursor.advance()]);
+    }
+
+    /**
+     * Check whether the genealogy contains the next professor queried.
+     */
+    @Benchmark
+    public boolean contains(Genealogy genealogy, Cursor cursor) {
+        return genealogy.tree.contains(genealogy.names[cursor.advance()]);
+    }
+
+    /**
+     * Find the advisor of the next professor queried.
+     */
+    @Benchmark
+    public Professor findAdvisor(Genealogy genealogy, Cursor cursor) {
+        try {
+            return genealogy.tree.findAdvisor(genealogy.names[cursor.advance()]);
+        } catch (NotFound e) {
+            // The root has no advisor
+            return null;
+        }
+    }
+
+    /**
+     * Find the lineage of the next professor queried.
+     */
+    @Benchmark
+    public List<Professor> findAcademicLineage(Genealogy genealogy, Cursor cursor)
+            throws NotFound {
+        return genealogy.tree.findAcademicLineage(genealogy.names[cursor.advance()]);
+    }
+
+    /**
+     * Find the common ancestor of the next pair of professors queried.
+     */
+    @Benchmark
+    public Professor commonAncestor(Genealogy genealogy, Cursor cursor) throws NotFound {
+        int i = cursor.advance();
+        return genealogy.tree.commonAncestor(genealogy.names[i], genealogy.others[i]);
+    }
+
+    /**
+     * Return the size of the next subtree queried.
+     */
+    @Benchmark
+    public int size(Genealogy genealogy, Cursor cursor) {
+        return genealogy.subtrees[cursor.advance()].size();
+    }
+
+    /**
+     * Return the depth of the next subtree queried.
+     */
+    @Benchmark
+    public int maxDepth(Genealogy genealogy, Cursor cursor) {
+        return genealogy.subtrees[cursor.advance()].maxDepth();
+    }
+
+    /**
+     * Render the whole genealogy as a string.
+     */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public String treeToString(Genealogy genealogy) {
+        return genealogy.tree.toString();
+    }
+}